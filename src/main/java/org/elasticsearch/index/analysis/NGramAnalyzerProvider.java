@@ -6,6 +6,7 @@ import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.env.Environment;
 import org.elasticsearch.index.IndexSettings;
 import org.ngram.config.Configuration;
+import org.ngram.core.TermEncodingEnum;
 
 /**
  * @author yanxin
@@ -22,10 +23,17 @@ public class NGramAnalyzerProvider extends AbstractIndexAnalyzerProvider<NGramAn
         // 因为在es启动的时候会去构造这个 Analyzer，但是此时是拿不到相关mapping中的配置的 如(max_gram，这个配置是配置在 index 的mapping中)
         // 那这个时候就会由于 内部有一个 字符串转Int 类型的操作，导致抛出异常，但是在字符串的情况下则不会发生
         // 这个现象可以通过再构造方法中打印日志来推导出（实在是坑）,当时自己调试的时候 Integer.parseInt(settings.get("max_gram")); 一直报错
-        int minGram = settings.getAsInt("max_gram", 9);
-        int maxGram = settings.getAsInt("min_gram", 10);
+        int minGram = settings.getAsInt("min_gram", 9);
+        int maxGram = settings.getAsInt("max_gram", 10);
         logger.info("min_gram : " + minGram + " max_gram:" + maxGram);
-        analyzer = new NGramAnalyzer(new Configuration(environment, minGram, maxGram));
+        Configuration configuration = Configuration.builder(environment)
+                .gram(minGram, maxGram)
+                .maxGramDiff(indexSettings.getMaxNgramDiff())
+                .trailingGrams(settings.getAsBoolean("emit_trailing_grams", false))
+                // 与索引时 n_gram tokenizer 的 term_encoding 保持一致，查询时才能匹配到 packed 编码的词元
+                .termEncoding(TermEncodingEnum.fromName(settings.get("term_encoding", TermEncodingEnum.UTF8.getName())))
+                .build();
+        analyzer = new NGramAnalyzer(configuration);
     }
 
     public static NGramAnalyzerProvider getNGramAnalyzerProvider(IndexSettings indexSettings, Environment environment, String s, Settings settings) {
@@ -0,0 +1,125 @@
+package org.elasticsearch.index.analysis;
+
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.admin.indices.analyze.AnalyzeAction;
+import org.ngram.config.Configuration;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 批量分词
+ * 把一批文本按线程数切成若干段，提交到有界的 es 线程池中并行分词，全部完成后按输入顺序回调结果
+ * 线程池队列满时提交会被拒绝（EsRejectedExecutionException），请求直接以 429 失败，不会在堆上无限堆积任务
+ * 每一段只创建一个 {@link NGramTokenizer} 并复用，而不是每个工作线程固定持有一个：
+ * 分词配置来自请求体，每个请求都可能不同，线程级缓存的分词器无法直接复用；
+ * 段数不超过 parallelism，所以每个请求创建的分词器数量与线程数同级，与文本数无关
+ */
+
+public class NGramBatchAnalyzer {
+
+    private final ExecutorService executor;
+
+    private final int parallelism;
+
+    private final Configuration configuration;
+
+    /**
+     * @param executor    分词线程池
+     * @param parallelism 单个请求最多切分的段数，一般与线程池线程数一致
+     */
+    public NGramBatchAnalyzer(ExecutorService executor, int parallelism, Configuration configuration) {
+        this.executor = executor;
+        this.parallelism = Math.max(1, parallelism);
+        this.configuration = configuration;
+    }
+
+    /**
+     * 执行批量分词
+     *
+     * @param texts    待分词文本
+     * @param listener 回调每个文本的分词结果，顺序与输入一致；任意一段失败或被线程池拒绝时回调失败
+     */
+    public void analyze(List<String> texts, ActionListener<List<List<AnalyzeAction.AnalyzeToken>>> listener) {
+        @SuppressWarnings("unchecked")
+        List<AnalyzeAction.AnalyzeToken>[] results = new List[texts.size()];
+        if (texts.isEmpty()) {
+            listener.onResponse(Arrays.asList(results));
+            return;
+        }
+
+        int chunkSize = (texts.size() + parallelism - 1) / parallelism;
+        int chunks = (texts.size() + chunkSize - 1) / chunkSize;
+        AtomicInteger remaining = new AtomicInteger(chunks);
+        AtomicBoolean failed = new AtomicBoolean();
+        for (int begin = 0; begin < texts.size(); begin += chunkSize) {
+            int from = begin;
+            int to = Math.min(texts.size(), begin + chunkSize);
+            try {
+                executor.execute(() -> {
+                    try {
+                        if (failed.get()) {
+                            return;
+                        }
+                        NGramTokenizer tokenizer = new NGramTokenizer(configuration);
+                        for (int i = from; i < to; i++) {
+                            results[i] = analyze(tokenizer, texts.get(i));
+                        }
+                        if (remaining.decrementAndGet() == 0 && !failed.get()) {
+                            listener.onResponse(Arrays.asList(results));
+                        }
+                    } catch (Exception e) {
+                        if (failed.compareAndSet(false, true)) {
+                            listener.onFailure(e);
+                        }
+                    }
+                });
+            } catch (Exception e) {
+                // 线程池已满，已经提交的段看到失败标记后直接跳过
+                if (failed.compareAndSet(false, true)) {
+                    listener.onFailure(e);
+                }
+                return;
+            }
+        }
+    }
+
+    private static List<AnalyzeAction.AnalyzeToken> analyze(NGramTokenizer tokenizer, String text) {
+        List<AnalyzeAction.AnalyzeToken> tokens = new ArrayList<>();
+        CharTermAttribute termAtt = tokenizer.getAttribute(CharTermAttribute.class);
+        OffsetAttribute offsetAttr = tokenizer.getAttribute(OffsetAttribute.class);
+        TypeAttribute typeAttr = tokenizer.getAttribute(TypeAttribute.class);
+        PositionIncrementAttribute posIncAttr = tokenizer.addAttribute(PositionIncrementAttribute.class);
+        try {
+            tokenizer.setReader(new StringReader(text));
+            tokenizer.reset();
+            int position = -1;
+            while (tokenizer.incrementToken()) {
+                position += posIncAttr.getPositionIncrement();
+                tokens.add(new AnalyzeAction.AnalyzeToken(termAtt.toString(), position, offsetAttr.startOffset(),
+                        offsetAttr.endOffset(), 1, typeAttr.type(), null));
+            }
+            tokenizer.end();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            try {
+                tokenizer.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+        return tokens;
+    }
+}
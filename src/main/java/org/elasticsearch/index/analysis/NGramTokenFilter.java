@@ -0,0 +1,128 @@
+package org.elasticsearch.index.analysis;
+
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+import org.ngram.config.Configuration;
+import org.ngram.core.NGramSegmenter;
+import org.ngram.core.Term;
+
+import java.io.IOException;
+
+/**
+ * n-gram 词元过滤器
+ * 与 {@link NGramTokenizer} 共用同一个分词核心，区别在于不直接读取原始文本，
+ * 而是对上游 tokenizer / filter 输出的每个词元就地做 n-gram 切分，
+ * 这样可以接在 standard、icu 等分词器以及 lowercase 等过滤器之后，整条分析链只需要一次流式处理
+ */
+
+public final class NGramTokenFilter extends TokenFilter {
+
+    private final CharTermAttribute termAtt;
+
+    private final OffsetAttribute offsetAttr;
+
+    private final TypeAttribute typeAttr;
+
+    private final PositionIncrementAttribute posIncAttr;
+
+    /**
+     * n-gram分词器
+     */
+    private final NGramSegmenter nGramSegmenter;
+
+    /**
+     * 当前正在切分的上游词元状态，为 null 时表示需要读取下一个上游词元
+     */
+    private State state;
+
+    private int tokenStart;
+
+    /**
+     * 上游词元的偏移量是否与文本长度一致
+     * 不一致时（如经过同义词、字符过滤器）无法推算 gram 的偏移量，直接沿用上游词元的偏移量
+     */
+    private boolean offsetsMatch;
+
+    private boolean firstGram;
+
+    /**
+     * 尚未输出的位置增量
+     * 短于 min_gram 的上游词元不产出 gram，它的位置增量累加到下一个输出的 gram 上，避免短语查询的位置错位
+     */
+    private int pendingPosInc;
+
+    public NGramTokenFilter(TokenStream input, Configuration configuration) {
+        super(input);
+        this.nGramSegmenter = new NGramSegmenter(null, configuration);
+
+        // 属性初始化
+        this.termAtt = addAttribute(CharTermAttribute.class);
+        this.offsetAttr = addAttribute(OffsetAttribute.class);
+        this.typeAttr = addAttribute(TypeAttribute.class);
+        this.posIncAttr = addAttribute(PositionIncrementAttribute.class);
+    }
+
+    /**
+     * 一个上游词元会产出多个 gram，同一个词元的 gram 处于同一位置
+     *
+     * @return 后续是否还有分词
+     * @throws IOException
+     */
+    @Override
+    public boolean incrementToken() throws IOException {
+        while (true) {
+            if (state == null) {
+                if (!input.incrementToken()) {
+                    return false;
+                }
+                tokenStart = offsetAttr.startOffset();
+                offsetsMatch = offsetAttr.endOffset() - tokenStart == termAtt.length();
+                // 直接从词元缓冲区切分，不再重新读取原文
+                nGramSegmenter.reset(termAtt.buffer(), 0, termAtt.length());
+                pendingPosInc += posIncAttr.getPositionIncrement();
+                state = captureState();
+                firstGram = true;
+            }
+
+            Term term = nGramSegmenter.next();
+            if (term == null) {
+                state = null;
+                continue;
+            }
+
+            restoreState(state);
+            termAtt.setEmpty().append(term.getText());
+            if (offsetsMatch) {
+                offsetAttr.setOffset(tokenStart + term.getBegin(), tokenStart + term.getEnd());
+            }
+            typeAttr.setType(term.getType().getName());
+            if (firstGram) {
+                posIncAttr.setPositionIncrement(pendingPosInc);
+                pendingPosInc = 0;
+            } else {
+                posIncAttr.setPositionIncrement(0);
+            }
+            firstGram = false;
+            return true;
+        }
+    }
+
+    @Override
+    public void end() throws IOException {
+        super.end();
+        // 末尾没有产出 gram 的词元同样占用位置
+        posIncAttr.setPositionIncrement(posIncAttr.getPositionIncrement() + pendingPosInc);
+        pendingPosInc = 0;
+    }
+
+    @Override
+    public void reset() throws IOException {
+        super.reset();
+        state = null;
+        pendingPosInc = 0;
+    }
+}
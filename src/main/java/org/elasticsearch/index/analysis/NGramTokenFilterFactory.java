@@ -0,0 +1,43 @@
+package org.elasticsearch.index.analysis;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.index.IndexSettings;
+import org.ngram.config.Configuration;
+import org.ngram.core.TermEncodingEnum;
+
+public class NGramTokenFilterFactory extends AbstractTokenFilterFactory {
+
+    private final Configuration configuration;
+
+    public NGramTokenFilterFactory(IndexSettings indexSettings, Environment environment, Settings settings, String name) {
+        super(indexSettings, name, settings);
+        this.configuration = buildConfiguration(environment, settings, indexSettings.getMaxNgramDiff());
+    }
+
+    /**
+     * 与 n_gram tokenizer 使用同一套配置项
+     * filter 没有需要兼容的已有索引，默认输出以最后一个字符结尾的 gram，否则单字词元不会产生任何 gram
+     * 词元属性的实现由上游 tokenizer 的属性工厂决定，filter 无法改变词元写入索引时的编码，所以不支持 term_encoding: packed
+     */
+    static Configuration buildConfiguration(Environment environment, Settings settings, int maxGramDiff) {
+        Settings filterSettings = Settings.builder().put("emit_trailing_grams", true).put(settings).build();
+        Configuration configuration = NGramTokenizerFactory.buildConfiguration(environment, filterSettings, maxGramDiff);
+        if (configuration.getTermEncoding() != TermEncodingEnum.UTF8) {
+            throw new IllegalArgumentException("[term_encoding] [" + configuration.getTermEncoding().getName()
+                    + "] is not supported by the n_gram token filter, use the n_gram tokenizer instead");
+        }
+        return configuration;
+    }
+
+    public static TokenFilterFactory getNGramTokenFilterFactory(IndexSettings indexSettings, Environment environment, String s, Settings settings) {
+        return new NGramTokenFilterFactory(indexSettings, environment, settings, s);
+    }
+
+    @Override
+    public TokenStream create(TokenStream tokenStream) {
+        NGramTokenizerFactory.awaitDictionary(configuration);
+        return new NGramTokenFilter(tokenStream, configuration);
+    }
+}
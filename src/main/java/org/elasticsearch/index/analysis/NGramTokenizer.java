@@ -7,7 +7,7 @@ import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
 import org.ngram.config.Configuration;
 import org.ngram.core.NGramSegmenter;
 import org.ngram.core.Term;
-import org.ngram.dictionary.Dictionary;
+import org.ngram.core.TermEncodingEnum;
 
 import java.io.IOException;
 
@@ -58,15 +58,14 @@ public class NGramTokenizer extends Tokenizer {
     }
 
     public NGramTokenizer(Configuration configuration) {
+        // packed 编码时由 PackedTermAttributeImpl 负责输出词元字节
+        super(configuration.getTermEncoding() == TermEncodingEnum.PACKED ? PackedTermAttributeImpl.FACTORY : DEFAULT_TOKEN_ATTRIBUTE_FACTORY);
         this.nGramSegmenter = new NGramSegmenter(input, configuration);
 
         // 属性初始化
         this.termAtt = addAttribute(CharTermAttribute.class);
         this.offsetAttr = addAttribute(OffsetAttribute.class);
         this.typeAttr = addAttribute(TypeAttribute.class);
-
-        // 初始化词典配置
-        Dictionary.configuration = configuration;
     }
 
 
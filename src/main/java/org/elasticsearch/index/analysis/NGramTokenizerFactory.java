@@ -4,9 +4,13 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.lucene.analysis.Tokenizer;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.env.Environment;
 import org.elasticsearch.index.IndexSettings;
 import org.ngram.config.Configuration;
+import org.ngram.core.CharNormalizer;
+import org.ngram.core.TermEncodingEnum;
+import org.ngram.dictionary.Dictionary;
 
 /**
  * @author yanxin
@@ -16,18 +20,73 @@ import org.ngram.config.Configuration;
 public class NGramTokenizerFactory extends AbstractTokenizerFactory {
     private static final Logger logger = LogManager.getLogger(NGramTokenizerFactory.class);
 
-    private Configuration configuration;
+    private final Configuration configuration;
 
     public NGramTokenizerFactory(IndexSettings indexSettings, Environment environment, Settings settings, String name) {
         super(indexSettings, settings, name);
+        this.configuration = buildConfiguration(environment, settings, indexSettings.getMaxNgramDiff());
+        logger.info(settings.toString());
+    }
+
+    /**
+     * 不属于任何索引时（如批量分词接口）以 index.max_ngram_diff 的默认值检查 gram 长度差
+     */
+    public static Configuration buildConfiguration(Environment environment, Settings settings) {
+        return buildConfiguration(environment, settings, IndexSettings.MAX_NGRAM_DIFF_SETTING.get(Settings.EMPTY));
+    }
+
+    /**
+     * 从 tokenizer / filter 的配置中解析分词配置，n_gram tokenizer、n_gram filter 与批量分词接口共用
+     * 配置只在创建 factory 时解析、校验一次，非法配置直接抛出 IllegalArgumentException
+     *
+     * @param maxGramDiff max_gram 与 min_gram 的建议最大差值，取所在索引的 index.max_ngram_diff，超过时只记录弃用警告
+     */
+    public static Configuration buildConfiguration(Environment environment, Settings settings, int maxGramDiff) {
         // 获取配置的时候一定要用有设置 default 默认值的方法
         // 因为在es启动的时候会去构造这个Tokenizer，但是此时是拿不到相关mapping中的配置的 如(max_gram，这个配置是配置在 index 的mapping中)
         // 那这个时候就会由于 内部有一个 字符串转Int 类型的操作，导致抛出异常，但是在字符串的情况下则不会发生
         // 这个现象可以通过再构造方法中打印日志来推导出（实在是坑）,当时自己调试的时候 Integer.parseInt(settings.get("max_gram")); 一直报错
         int maxGram = settings.getAsInt("max_gram", 2);
         int minGram = settings.getAsInt("min_gram", 1);
-        this.configuration = new Configuration(environment, minGram, maxGram);
-        logger.info(settings.toString());
+        // 字符归一化，在读取文本时逐字符查表完成
+        CharNormalizer normalizer = CharNormalizer.of(settings.getAsBoolean("full_width_to_half_width", false),
+                settings.getAsBoolean("lowercase", false),
+                settings.getAsBoolean("traditional_to_simplified", false));
+        Configuration configuration = Configuration.builder(environment)
+                .gram(minGram, maxGram)
+                .maxGramDiff(maxGramDiff)
+                // 是否输出以最后一个字符结尾的 gram，默认关闭，开启后需要重建索引
+                .trailingGrams(settings.getAsBoolean("emit_trailing_grams", false))
+                .normalizer(normalizer)
+                .dictionary(Dictionary::getSnapshot)
+                // 开启后除了 gram 之外，还会输出词典中长度超过 max_gram 的词
+                .useDictionary(settings.getAsBoolean("use_dictionary", false))
+                // 按停用词表、词频丢弃没有区分度的 gram，缩小倒排表
+                .pruneStopwords(settings.getAsBoolean("prune_stopwords", false))
+                .maxGramFrequency(settings.getAsInt("max_gram_frequency", 0))
+                // 词典在后台异步加载，默认不等待，加载完成前使用空词典
+                .waitForDictionary(settings.getAsTime("wait_for_dictionary", TimeValue.ZERO))
+                // packed 编码缩小词典体积，查询时需要使用同样配置的分词器
+                .termEncoding(TermEncodingEnum.fromName(settings.get("term_encoding", TermEncodingEnum.UTF8.getName())))
+                .build();
+        if (configuration.isDictionaryRequired()) {
+            // 词典重新加载时在后台预先生成该归一化方式的快照
+            Dictionary.registerNormalizer(configuration.getNormalizer());
+        }
+        return configuration;
+    }
+
+    /**
+     * 按 wait_for_dictionary 配置等待本地词典与远程词典缓存首次发布，不等待远程词典下载
+     * 分词器在线程内会被复用，只有首次创建时可能需要等待
+     */
+    static void awaitDictionary(Configuration configuration) {
+        if (!configuration.isDictionaryRequired() || configuration.getWaitForDictionary().millis() <= 0 || Dictionary.isReady()) {
+            return;
+        }
+        if (!Dictionary.awaitReady(configuration.getWaitForDictionary())) {
+            logger.warn("dictionary is not ready after waiting {}, use current snapshot", configuration.getWaitForDictionary());
+        }
     }
 
 
@@ -37,6 +96,7 @@ public class NGramTokenizerFactory extends AbstractTokenizerFactory {
 
     @Override
     public Tokenizer create() {
+        awaitDictionary(configuration);
         return new NGramTokenizer(configuration);
     }
 }
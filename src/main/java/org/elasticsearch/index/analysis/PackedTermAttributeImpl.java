@@ -0,0 +1,64 @@
+package org.elasticsearch.index.analysis;
+
+import org.apache.lucene.analysis.tokenattributes.CharTermAttributeImpl;
+import org.apache.lucene.util.AttributeFactory;
+import org.apache.lucene.util.AttributeImpl;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+
+/**
+ * 紧凑编码的词元属性
+ * 索引时 lucene 通过 TermToBytesRefAttribute 获取词元的字节表示，默认为 UTF-8，
+ * 这里改为每个 UTF-16 字符固定 2 个字节（大端序），中文 gram 比 UTF-8 少三分之一，词典与倒排查找都会更小更快
+ * <p>
+ * 编码是单射的，且保持字符顺序，所以前缀、范围比较依然成立；
+ * 查询时必须使用同样开启 packed 编码的分词器，term 等不经过分词的查询无法直接匹配
+ */
+
+public class PackedTermAttributeImpl extends CharTermAttributeImpl {
+
+    /**
+     * 使用紧凑编码的属性工厂，CharTermAttribute 与 TermToBytesRefAttribute 都由本类实现
+     */
+    public static final AttributeFactory FACTORY = AttributeFactory.getStaticImplementation(
+            AttributeFactory.DEFAULT_ATTRIBUTE_FACTORY, PackedTermAttributeImpl.class);
+
+    /**
+     * getBytesRef 返回的字节缓冲，clone / copyTo 时必须深拷贝，不能与其它属性实例共享
+     */
+    private BytesRefBuilder packed = new BytesRefBuilder();
+
+    public PackedTermAttributeImpl() {
+    }
+
+    @Override
+    public BytesRef getBytesRef() {
+        int length = length();
+        char[] buffer = buffer();
+        packed.grow(length << 1);
+        byte[] bytes = packed.bytes();
+        for (int i = 0, j = 0; i < length; i++) {
+            char c = buffer[i];
+            bytes[j++] = (byte) (c >>> 8);
+            bytes[j++] = (byte) c;
+        }
+        packed.setLength(length << 1);
+        return packed.get();
+    }
+
+    @Override
+    public PackedTermAttributeImpl clone() {
+        PackedTermAttributeImpl t = (PackedTermAttributeImpl) super.clone();
+        t.packed = new BytesRefBuilder();
+        t.packed.copyBytes(packed.get());
+        return t;
+    }
+
+    @Override
+    public void copyTo(AttributeImpl target) {
+        super.copyTo(target);
+        if (target instanceof PackedTermAttributeImpl) {
+            ((PackedTermAttributeImpl) target).packed.copyBytes(packed.get());
+        }
+    }
+}
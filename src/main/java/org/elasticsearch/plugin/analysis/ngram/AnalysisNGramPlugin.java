@@ -1,26 +1,131 @@
 package org.elasticsearch.plugin.analysis.ngram;
 
 import org.apache.lucene.analysis.Analyzer;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.node.DiscoveryNodes;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.io.stream.NamedWriteableRegistry;
+import org.elasticsearch.common.settings.ClusterSettings;
+import org.elasticsearch.common.settings.IndexScopedSettings;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.settings.SettingsFilter;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.env.NodeEnvironment;
 import org.elasticsearch.index.analysis.AnalyzerProvider;
+import org.elasticsearch.index.analysis.NGramTokenFilterFactory;
+import org.elasticsearch.index.analysis.TokenFilterFactory;
 import org.elasticsearch.index.analysis.TokenizerFactory;
 import org.elasticsearch.index.analysis.NGramAnalyzerProvider;
 import org.elasticsearch.index.analysis.NGramTokenizerFactory;
 import org.elasticsearch.indices.analysis.AnalysisModule;
+import org.elasticsearch.plugins.ActionPlugin;
 import org.elasticsearch.plugins.AnalysisPlugin;
 import org.elasticsearch.plugins.Plugin;
+import org.elasticsearch.repositories.RepositoriesService;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestHandler;
+import org.elasticsearch.script.ScriptService;
+import org.elasticsearch.threadpool.ExecutorBuilder;
+import org.elasticsearch.threadpool.FixedExecutorBuilder;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.watcher.ResourceWatcherService;
+import org.ngram.dictionary.Dictionary;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
  * @author yanxin
  * @date 2021/2/20
  */
 
-public class AnalysisNGramPlugin extends Plugin implements AnalysisPlugin {
+public class AnalysisNGramPlugin extends Plugin implements AnalysisPlugin, ActionPlugin {
 
     public static final String PLUGIN_NAME = "n-gram";
 
+    /**
+     * 批量分词线程池名称，线程数与队列长度可以通过 thread_pool.n_gram_batch_analyze.size / queue_size 调整
+     */
+    public static final String BATCH_ANALYZE_THREAD_POOL_NAME = "n_gram_batch_analyze";
+
+    /**
+     * 批量分词线程池默认队列长度，队列中的每个任务是一个请求中的一段文本
+     */
+    private static final int BATCH_ANALYZE_QUEUE_SIZE = 64;
+
+    /**
+     * 批量分词线程数，默认与节点处理器数一致，且不会超过节点处理器数
+     */
+    public static final Setting<Integer> BATCH_ANALYZE_PARALLELISM_SETTING = Setting.intSetting(
+            "n_gram.batch_analyze.parallelism", EsExecutors.NODE_PROCESSORS_SETTING, 1, Setting.Property.NodeScope);
+
+    /**
+     * 单次批量分词请求最多包含的文本数，默认 10000，一次请求可以提交上万条短文本
+     */
+    public static final Setting<Integer> BATCH_ANALYZE_MAX_TEXTS_SETTING = Setting.intSetting(
+            "n_gram.batch_analyze.max_texts", 10000, 1, Setting.Property.NodeScope);
+
+    /**
+     * 单次批量分词请求所有文本的字符总数上限，gram 数量与字符数成正比，限制单个请求占用的堆内存
+     * 默认 1000000，按 1~2 gram 估算单个请求的结果约占一两百 MB 堆内存，调大前要考虑节点的堆大小
+     */
+    public static final Setting<Integer> BATCH_ANALYZE_MAX_CHARS_SETTING = Setting.intSetting(
+            "n_gram.batch_analyze.max_chars", 1000000, 1, Setting.Property.NodeScope);
+
+    /**
+     * 远程词典下载线程数
+     */
+    private static final int DICTIONARY_FETCH_THREADS = 4;
+
+    /**
+     * es 线程池，批量分词使用其中的 n_gram_batch_analyze 线程池
+     */
+    private volatile ThreadPool threadPool;
+
+    /**
+     * 词典加载与监控线程池，一个线程用于加载词典与远程词典监控，一个线程用于本地词典文件监听
+     */
+    private ScheduledExecutorService dictionaryPool;
+
+    /**
+     * 远程词典下载线程池，多个远程词典源并发下载
+     */
+    private ExecutorService dictionaryFetchPool;
+
+    /**
+     * 节点启动时在插件自己的线程池中异步加载词典，不阻塞启动流程
+     */
+    @Override
+    public Collection<Object> createComponents(Client client, ClusterService clusterService, ThreadPool threadPool,
+                                               ResourceWatcherService resourceWatcherService, ScriptService scriptService,
+                                               NamedXContentRegistry xContentRegistry, Environment environment,
+                                               NodeEnvironment nodeEnvironment, NamedWriteableRegistry namedWriteableRegistry,
+                                               IndexNameExpressionResolver indexNameExpressionResolver,
+                                               Supplier<RepositoriesService> repositoriesServiceSupplier) {
+        this.threadPool = threadPool;
+        dictionaryPool = new ScheduledThreadPoolExecutor(2, EsExecutors.daemonThreadFactory("n-gram-dictionary"));
+        dictionaryFetchPool = new ThreadPoolExecutor(DICTIONARY_FETCH_THREADS, DICTIONARY_FETCH_THREADS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), EsExecutors.daemonThreadFactory("n-gram-dictionary-fetch"));
+        ((ThreadPoolExecutor) dictionaryFetchPool).allowCoreThreadTimeOut(true);
+        Dictionary.initialize(environment, dictionaryPool, dictionaryFetchPool);
+        return Collections.emptyList();
+    }
+
     @Override
     public Map<String, AnalysisModule.AnalysisProvider<TokenizerFactory>> getTokenizers() {
         Map<String, AnalysisModule.AnalysisProvider<TokenizerFactory>> extra = new HashMap<>(2);
@@ -30,6 +135,15 @@ public class AnalysisNGramPlugin extends Plugin implements AnalysisPlugin {
         return extra;
     }
 
+    @Override
+    public Map<String, AnalysisModule.AnalysisProvider<TokenFilterFactory>> getTokenFilters() {
+        Map<String, AnalysisModule.AnalysisProvider<TokenFilterFactory>> extra = new HashMap<>(2);
+
+        extra.put("n_gram", NGramTokenFilterFactory::getNGramTokenFilterFactory);
+
+        return extra;
+    }
+
     @Override
     public Map<String, AnalysisModule.AnalysisProvider<AnalyzerProvider<? extends Analyzer>>> getAnalyzers() {
         Map<String, AnalysisModule.AnalysisProvider<AnalyzerProvider<? extends Analyzer>>> extra = new HashMap<>(2);
@@ -38,4 +152,44 @@ public class AnalysisNGramPlugin extends Plugin implements AnalysisPlugin {
 
         return extra;
     }
+
+    @Override
+    public List<Setting<?>> getSettings() {
+        return Arrays.asList(BATCH_ANALYZE_PARALLELISM_SETTING, BATCH_ANALYZE_MAX_TEXTS_SETTING, BATCH_ANALYZE_MAX_CHARS_SETTING);
+    }
+
+    /**
+     * 批量分词使用有界的 fixed 线程池，队列满时拒绝请求，由 es 返回 429
+     */
+    @Override
+    public List<ExecutorBuilder<?>> getExecutorBuilders(Settings settings) {
+        return Collections.singletonList(new FixedExecutorBuilder(settings, BATCH_ANALYZE_THREAD_POOL_NAME,
+                batchAnalyzeParallelism(settings), BATCH_ANALYZE_QUEUE_SIZE, "thread_pool." + BATCH_ANALYZE_THREAD_POOL_NAME));
+    }
+
+    private static int batchAnalyzeParallelism(Settings settings) {
+        return Math.min(BATCH_ANALYZE_PARALLELISM_SETTING.get(settings), EsExecutors.allocatedProcessors(settings));
+    }
+
+    @Override
+    public List<RestHandler> getRestHandlers(Settings settings, RestController restController, ClusterSettings clusterSettings,
+                                             IndexScopedSettings indexScopedSettings, SettingsFilter settingsFilter,
+                                             IndexNameExpressionResolver indexNameExpressionResolver,
+                                             Supplier<DiscoveryNodes> nodesInCluster) {
+        return Arrays.asList(
+                new RestBatchAnalyzeAction(() -> threadPool.executor(BATCH_ANALYZE_THREAD_POOL_NAME),
+                        batchAnalyzeParallelism(settings), BATCH_ANALYZE_MAX_TEXTS_SETTING.get(settings),
+                        BATCH_ANALYZE_MAX_CHARS_SETTING.get(settings)),
+                new RestNGramStatsAction());
+    }
+
+    @Override
+    public void close() {
+        if (dictionaryPool != null) {
+            dictionaryPool.shutdownNow();
+        }
+        if (dictionaryFetchPool != null) {
+            dictionaryFetchPool.shutdownNow();
+        }
+    }
 }
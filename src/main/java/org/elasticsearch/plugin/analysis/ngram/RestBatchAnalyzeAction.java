@@ -0,0 +1,140 @@
+package org.elasticsearch.plugin.analysis.ngram;
+
+import org.elasticsearch.action.admin.indices.analyze.AnalyzeAction;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.analysis.NGramBatchAnalyzer;
+import org.elasticsearch.index.analysis.NGramTokenizerFactory;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestResponse;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.rest.action.RestBuilderListener;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
+
+/**
+ * 批量分词接口
+ * <pre>
+ * POST /_n_gram/_batch_analyze
+ * {
+ *   "tokenizer": { "min_gram": 1, "max_gram": 2 },
+ *   "text": ["第一段文本", "第二段文本"]
+ * }
+ * </pre>
+ * tokenizer 中的配置项与 n_gram tokenizer 一致，返回结果的 docs 与 text 一一对应，token 格式与 _analyze 相同
+ * 单次请求的文本数与总字符数都有上限，默认 10000 条、共 1000000 个字符，超过时返回 400，
+ * 可以通过 n_gram.batch_analyze.max_texts / n_gram.batch_analyze.max_chars 调整；更大的批量需要由调用方拆成多个请求
+ * 分词在有界的 n_gram_batch_analyze 线程池中执行，线程池满时返回 429
+ */
+
+public class RestBatchAnalyzeAction extends BaseRestHandler {
+
+    private static final String TOKENIZER_FIELD = "tokenizer";
+
+    private static final String TEXT_FIELD = "text";
+
+    private final Supplier<ExecutorService> executor;
+
+    private final int parallelism;
+
+    private final int maxTexts;
+
+    private final int maxChars;
+
+    public RestBatchAnalyzeAction(Supplier<ExecutorService> executor, int parallelism, int maxTexts, int maxChars) {
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.maxTexts = maxTexts;
+        this.maxChars = maxChars;
+    }
+
+    @Override
+    public String getName() {
+        return "n_gram_batch_analyze_action";
+    }
+
+    @Override
+    public List<Route> routes() {
+        return Arrays.asList(
+                new Route(RestRequest.Method.GET, "/_n_gram/_batch_analyze"),
+                new Route(RestRequest.Method.POST, "/_n_gram/_batch_analyze"));
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) throws IOException {
+        Map<String, Object> body;
+        try (XContentParser parser = request.contentParser()) {
+            body = parser.map();
+        }
+
+        Settings settings = Settings.EMPTY;
+        Object tokenizer = body.get(TOKENIZER_FIELD);
+        if (tokenizer instanceof Map) {
+            settings = Settings.builder().loadFromMap(castMap(tokenizer)).build();
+        } else if (tokenizer != null) {
+            throw new IllegalArgumentException("[" + TOKENIZER_FIELD + "] must be an object");
+        }
+
+        List<String> texts = new ArrayList<>();
+        Object text = body.get(TEXT_FIELD);
+        if (text instanceof List) {
+            for (Object value : (List<?>) text) {
+                texts.add(String.valueOf(value));
+            }
+        } else if (text != null) {
+            texts.add(String.valueOf(text));
+        }
+        if (texts.size() > maxTexts) {
+            throw new IllegalArgumentException("[" + TEXT_FIELD + "] contains " + texts.size()
+                    + " texts, more than the limit [" + maxTexts + "]");
+        }
+        long chars = 0;
+        for (String value : texts) {
+            chars += value.length();
+        }
+        if (chars > maxChars) {
+            throw new IllegalArgumentException("[" + TEXT_FIELD + "] contains " + chars
+                    + " chars, more than the limit [" + maxChars + "]");
+        }
+
+        NGramBatchAnalyzer analyzer = new NGramBatchAnalyzer(executor.get(), parallelism,
+                NGramTokenizerFactory.buildConfiguration(null, settings));
+
+        // 分词放到有界的 es 线程池里执行，不占用 http 线程，线程池拒绝时由 listener 返回 429
+        return channel -> analyzer.analyze(texts, new RestBuilderListener<List<List<AnalyzeAction.AnalyzeToken>>>(channel) {
+            @Override
+            public RestResponse buildResponse(List<List<AnalyzeAction.AnalyzeToken>> results, XContentBuilder builder)
+                    throws Exception {
+                builder.startObject();
+                builder.startArray("docs");
+                for (List<AnalyzeAction.AnalyzeToken> tokens : results) {
+                    builder.startObject();
+                    builder.startArray("tokens");
+                    for (AnalyzeAction.AnalyzeToken token : tokens) {
+                        token.toXContent(builder, request);
+                    }
+                    builder.endArray();
+                    builder.endObject();
+                }
+                builder.endArray();
+                builder.endObject();
+                return new BytesRestResponse(RestStatus.OK, builder);
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> castMap(Object map) {
+        return (Map<String, Object>) map;
+    }
+}
@@ -0,0 +1,47 @@
+package org.elasticsearch.plugin.analysis.ngram;
+
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.ngram.core.SegmenterStats;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 当前节点的分词统计
+ * 计数为节点级别，自节点启动起累计，包含索引时与查询时的分析，不区分索引，见 {@link SegmenterStats}
+ * <pre>
+ * GET /_n_gram/stats
+ * </pre>
+ */
+
+public class RestNGramStatsAction extends BaseRestHandler {
+
+    @Override
+    public String getName() {
+        return "n_gram_stats_action";
+    }
+
+    @Override
+    public List<Route> routes() {
+        return Collections.singletonList(new Route(RestRequest.Method.GET, "/_n_gram/stats"));
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) {
+        return channel -> {
+            XContentBuilder builder = channel.newBuilder();
+            builder.startObject();
+            builder.startObject("pruned_tokens");
+            builder.field("stopword", SegmenterStats.getPrunedStopwordTerms());
+            builder.field("frequency", SegmenterStats.getPrunedFrequentTerms());
+            builder.endObject();
+            builder.endObject();
+            channel.sendResponse(new BytesRestResponse(RestStatus.OK, builder));
+        };
+    }
+}
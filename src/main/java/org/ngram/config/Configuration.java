@@ -1,50 +1,289 @@
 package org.ngram.config;
 
+import org.elasticsearch.common.logging.DeprecationLogger;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.env.Environment;
+import org.elasticsearch.index.IndexSettings;
+import org.ngram.core.CharNormalizer;
+import org.ngram.core.TermEncodingEnum;
+import org.ngram.dictionary.DictionarySnapshot;
+
+import java.util.function.Supplier;
 
 /**
  * 分词器配置类
- * 用于传递配置
+ * 每个 tokenizer / filter / analyzer 的配置只在创建 factory 时解析、校验一次，之后不可修改，
+ * 可以被多个线程中的分词器共享；字符归一化表、是否需要词典等在这里预先计算好，创建分词器时不再做任何解析
  *
  * @author yanxin
  * @date 2021/3/5
  */
 
-public class Configuration {
+public final class Configuration {
+
+    private static final DeprecationLogger deprecationLogger = DeprecationLogger.getLogger(Configuration.class);
+
+    private final Environment environment;
+
+    private final int minGram;
+
+    private final int maxGram;
+
+    /**
+     * 是否输出以最后一个字符结尾的 gram
+     * 早期版本的滑动窗口不包含最后一个字符，默认保持该行为，已有索引不需要重建；开启后需要重建索引
+     */
+    private final boolean trailingGrams;
+
+    /**
+     * 读取文本时的字符归一化
+     */
+    private final CharNormalizer normalizer;
+
+    /**
+     * 词典快照来源
+     */
+    private final Supplier<DictionarySnapshot> dictionary;
+
+    /**
+     * 是否输出词典词
+     */
+    private final boolean useDictionary;
 
-    private Environment environment;
+    /**
+     * 是否丢弃停用词表中的 gram
+     */
+    private final boolean pruneStopwords;
 
-    private int minGram;
+    /**
+     * 词频超过该值的 gram 会被丢弃，为 0 时不按词频丢弃
+     */
+    private final int maxGramFrequency;
 
-    private int maxGram;
+    /**
+     * 创建分词器时等待词典首次加载完成的最长时间，为 0 时不等待，直接使用当前词典快照
+     */
+    private final TimeValue waitForDictionary;
+
+    /**
+     * 词元写入索引时的编码方式
+     */
+    private final TermEncodingEnum termEncoding;
+
+    /**
+     * 是否需要按词典裁剪 gram
+     */
+    private final boolean pruning;
+
+    /**
+     * 分词时是否需要获取词典快照
+     */
+    private final boolean dictionaryRequired;
 
     public Configuration(Environment environment, int minGram, int maxGram) {
-        this.environment = environment;
-        this.minGram = minGram;
-        this.maxGram = maxGram;
+        this(environment, minGram, maxGram, CharNormalizer.none());
     }
 
-    public Environment getEnvironment() {
-        return environment;
+    public Configuration(Environment environment, int minGram, int maxGram, CharNormalizer normalizer) {
+        this(environment, minGram, maxGram, normalizer, null);
     }
 
-    public void setEnvironment(Environment environment) {
-        this.environment = environment;
+    public Configuration(Environment environment, int minGram, int maxGram, CharNormalizer normalizer,
+                         Supplier<DictionarySnapshot> dictionary) {
+        this(builder(environment).gram(minGram, maxGram).normalizer(normalizer)
+                .dictionary(dictionary).useDictionary(dictionary != null));
     }
 
-    public int getMinGram() {
-        return minGram;
+    private Configuration(Builder builder) {
+        if (builder.minGram < 1) {
+            throw new IllegalArgumentException("[min_gram] must be greater than or equal to 1, got [" + builder.minGram + "]");
+        }
+        if (builder.minGram > builder.maxGram) {
+            throw new IllegalArgumentException("[min_gram] (" + builder.minGram + ") must be less than or equal to [max_gram] ("
+                    + builder.maxGram + ")");
+        }
+        int gramDiff = builder.maxGram - builder.minGram;
+        if (gramDiff > builder.maxGramDiff) {
+            // 每个位置输出的 gram 数随差值线性增长，但已有索引的配置可能超过 index.max_ngram_diff 的默认值 1，
+            // 直接拒绝会导致这些索引无法打开，所以只记录弃用警告，不抛出异常
+            deprecationLogger.deprecate("n_gram_max_gram_diff", "The difference between max_gram and min_gram in NGram Tokenizer "
+                    + "should be less than or equal to: [" + builder.maxGramDiff + "] but was [" + gramDiff + "]. "
+                    + "This limit can be set by changing the [" + IndexSettings.MAX_NGRAM_DIFF_SETTING.getKey()
+                    + "] index level setting.");
+        }
+        if (builder.maxGramFrequency < 0) {
+            throw new IllegalArgumentException("[max_gram_frequency] must be greater than or equal to 0, got ["
+                    + builder.maxGramFrequency + "]");
+        }
+        if (builder.normalizer == null || builder.termEncoding == null || builder.waitForDictionary == null) {
+            throw new IllegalArgumentException("normalizer, term_encoding and wait_for_dictionary must not be null");
+        }
+        this.environment = builder.environment;
+        this.minGram = builder.minGram;
+        this.maxGram = builder.maxGram;
+        this.trailingGrams = builder.trailingGrams;
+        this.normalizer = builder.normalizer;
+        this.dictionary = builder.dictionary;
+        this.useDictionary = builder.useDictionary;
+        this.pruneStopwords = builder.pruneStopwords;
+        this.maxGramFrequency = builder.maxGramFrequency;
+        this.waitForDictionary = builder.waitForDictionary;
+        this.termEncoding = builder.termEncoding;
+        this.pruning = pruneStopwords || maxGramFrequency > 0;
+        this.dictionaryRequired = dictionary != null && (useDictionary || pruning);
+    }
+
+    public static Builder builder(Environment environment) {
+        return new Builder(environment);
     }
 
-    public void setMinGram(int minGram) {
-        this.minGram = minGram;
+    public Environment getEnvironment() {
+        return environment;
+    }
+
+    public int getMinGram() {
+        return minGram;
     }
 
     public int getMaxGram() {
         return maxGram;
     }
 
-    public void setMaxGram(int maxGram) {
-        this.maxGram = maxGram;
+    public boolean isTrailingGrams() {
+        return trailingGrams;
+    }
+
+    public CharNormalizer getNormalizer() {
+        return normalizer;
+    }
+
+    public Supplier<DictionarySnapshot> getDictionary() {
+        return dictionary;
+    }
+
+    public boolean isUseDictionary() {
+        return useDictionary;
+    }
+
+    public boolean isPruneStopwords() {
+        return pruneStopwords;
+    }
+
+    public int getMaxGramFrequency() {
+        return maxGramFrequency;
+    }
+
+    public TimeValue getWaitForDictionary() {
+        return waitForDictionary;
+    }
+
+    public TermEncodingEnum getTermEncoding() {
+        return termEncoding;
+    }
+
+    /**
+     * @return 是否需要按词典裁剪 gram
+     */
+    public boolean isPruning() {
+        return pruning;
+    }
+
+    /**
+     * @return 分词时是否需要获取词典快照
+     */
+    public boolean isDictionaryRequired() {
+        return dictionaryRequired;
+    }
+
+    /**
+     * 配置构造器，build 时统一校验
+     */
+    public static final class Builder {
+
+        private final Environment environment;
+
+        private int minGram = 1;
+
+        private int maxGram = 2;
+
+        private int maxGramDiff = Integer.MAX_VALUE;
+
+        private boolean trailingGrams;
+
+        private CharNormalizer normalizer = CharNormalizer.none();
+
+        private Supplier<DictionarySnapshot> dictionary;
+
+        private boolean useDictionary;
+
+        private boolean pruneStopwords;
+
+        private int maxGramFrequency;
+
+        private TimeValue waitForDictionary = TimeValue.ZERO;
+
+        private TermEncodingEnum termEncoding = TermEncodingEnum.UTF8;
+
+        private Builder(Environment environment) {
+            this.environment = environment;
+        }
+
+        public Builder gram(int minGram, int maxGram) {
+            this.minGram = minGram;
+            this.maxGram = maxGram;
+            return this;
+        }
+
+        /**
+         * @param maxGramDiff max_gram 与 min_gram 的建议最大差值，一般取索引的 index.max_ngram_diff，超过时只记录弃用警告，默认不限制
+         */
+        public Builder maxGramDiff(int maxGramDiff) {
+            this.maxGramDiff = maxGramDiff;
+            return this;
+        }
+
+        public Builder trailingGrams(boolean trailingGrams) {
+            this.trailingGrams = trailingGrams;
+            return this;
+        }
+
+        public Builder normalizer(CharNormalizer normalizer) {
+            this.normalizer = normalizer;
+            return this;
+        }
+
+        public Builder dictionary(Supplier<DictionarySnapshot> dictionary) {
+            this.dictionary = dictionary;
+            return this;
+        }
+
+        public Builder useDictionary(boolean useDictionary) {
+            this.useDictionary = useDictionary;
+            return this;
+        }
+
+        public Builder pruneStopwords(boolean pruneStopwords) {
+            this.pruneStopwords = pruneStopwords;
+            return this;
+        }
+
+        public Builder maxGramFrequency(int maxGramFrequency) {
+            this.maxGramFrequency = maxGramFrequency;
+            return this;
+        }
+
+        public Builder waitForDictionary(TimeValue waitForDictionary) {
+            this.waitForDictionary = waitForDictionary;
+            return this;
+        }
+
+        public Builder termEncoding(TermEncodingEnum termEncoding) {
+            this.termEncoding = termEncoding;
+            return this;
+        }
+
+        public Configuration build() {
+            return new Configuration(this);
+        }
     }
 }
@@ -0,0 +1,176 @@
+package org.ngram.core;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 字符归一化
+ * 全角转半角、大小写折叠、繁体转简体三种归一化预先合并成一张 65536 大小的映射表，
+ * 分词器读取文本时逐字符查表即可，不需要再额外挂 char filter 拷贝整段文本
+ * <p>
+ * 映射始终是单个字符到单个字符，文本长度不变，所以 gram 的偏移量与原文一一对应，无需额外的偏移量修正
+ */
+
+public final class CharNormalizer {
+
+    /**
+     * 繁简映射表，每行一个 "繁 简" 字符对，来源与许可见文件头部注释
+     */
+    private static final String T2S_RESOURCE = "/t2s.txt";
+
+    private static final int FULL_WIDTH_BEGIN = 0xFF01;
+
+    private static final int FULL_WIDTH_END = 0xFF5E;
+
+    private static final int FULL_WIDTH_OFFSET = 0xFEE0;
+
+    private static final char IDEOGRAPHIC_SPACE = '\u3000';
+
+    /**
+     * 三个开关共 8 种组合，映射表按组合缓存，所有分词器共用
+     */
+    private static final CharNormalizer[] CACHE = new CharNormalizer[8];
+
+    private final boolean fullWidthToHalfWidth;
+
+    private final boolean lowercase;
+
+    private final boolean traditionalToSimplified;
+
+    private final char[] table;
+
+    private CharNormalizer(boolean fullWidthToHalfWidth, boolean lowercase, boolean traditionalToSimplified) {
+        this.fullWidthToHalfWidth = fullWidthToHalfWidth;
+        this.lowercase = lowercase;
+        this.traditionalToSimplified = traditionalToSimplified;
+        this.table = isEnabled() ? buildTable() : null;
+    }
+
+    public static synchronized CharNormalizer of(boolean fullWidthToHalfWidth, boolean lowercase, boolean traditionalToSimplified) {
+        int key = (fullWidthToHalfWidth ? 1 : 0) | (lowercase ? 2 : 0) | (traditionalToSimplified ? 4 : 0);
+        if (CACHE[key] == null) {
+            CACHE[key] = new CharNormalizer(fullWidthToHalfWidth, lowercase, traditionalToSimplified);
+        }
+        return CACHE[key];
+    }
+
+    public static CharNormalizer none() {
+        return of(false, false, false);
+    }
+
+    /**
+     * @return 是否开启了任意一种归一化
+     */
+    public boolean isEnabled() {
+        return fullWidthToHalfWidth || lowercase || traditionalToSimplified;
+    }
+
+    public char normalize(char c) {
+        return table == null ? c : table[c];
+    }
+
+    /**
+     * 就地归一化缓冲区中的一段字符
+     */
+    public void normalize(char[] buffer, int offset, int length) {
+        if (table == null) {
+            return;
+        }
+        for (int i = offset, end = offset + length; i < end; i++) {
+            buffer[i] = table[buffer[i]];
+        }
+    }
+
+    /**
+     * 拷贝的同时完成归一化，拷贝与查表合并为一次遍历
+     */
+    public void copy(char[] src, int srcOffset, char[] dest, int destOffset, int length) {
+        if (table == null) {
+            System.arraycopy(src, srcOffset, dest, destOffset, length);
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            dest[destOffset + i] = table[src[srcOffset + i]];
+        }
+    }
+
+    /**
+     * 依次叠加 全角转半角 -> 繁体转简体 -> 小写
+     */
+    private char[] buildTable() {
+        char[] t = new char[Character.MAX_VALUE + 1];
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            t[c] = (char) c;
+        }
+
+        if (fullWidthToHalfWidth) {
+            for (int c = FULL_WIDTH_BEGIN; c <= FULL_WIDTH_END; c++) {
+                t[c] = (char) (c - FULL_WIDTH_OFFSET);
+            }
+            t[IDEOGRAPHIC_SPACE] = ' ';
+        }
+
+        if (traditionalToSimplified) {
+            char[] t2s = loadTraditionalToSimplified();
+            for (int c = 0; c <= Character.MAX_VALUE; c++) {
+                t[c] = t2s[t[c]];
+            }
+        }
+
+        if (lowercase) {
+            for (int c = 0; c <= Character.MAX_VALUE; c++) {
+                // 代理对字符保持原样，保证映射是单字符到单字符
+                if (!Character.isSurrogate(t[c])) {
+                    t[c] = Character.toLowerCase(t[c]);
+                }
+            }
+        }
+        return t;
+    }
+
+    private static char[] loadTraditionalToSimplified() {
+        char[] t = new char[Character.MAX_VALUE + 1];
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            t[c] = (char) c;
+        }
+
+        InputStream input = CharNormalizer.class.getResourceAsStream(T2S_RESOURCE);
+        if (input == null) {
+            throw new IllegalStateException("can not find " + T2S_RESOURCE + " on classpath");
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.charAt(0) == '#') {
+                    continue;
+                }
+                // 兼容 OpenCC 的 "繁\t简 候选..." 格式，只取第一个候选；超出 BMP 的字符无法放进 char 映射表，直接跳过
+                String[] fields = line.split("\\s+");
+                if (fields.length < 2 || fields[0].length() != 1 || fields[1].length() != 1) {
+                    continue;
+                }
+                t[fields[0].charAt(0)] = fields[1].charAt(0);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("load " + T2S_RESOURCE + " fail", e);
+        }
+        return t;
+    }
+
+    public boolean isFullWidthToHalfWidth() {
+        return fullWidthToHalfWidth;
+    }
+
+    public boolean isLowercase() {
+        return lowercase;
+    }
+
+    public boolean isTraditionalToSimplified() {
+        return traditionalToSimplified;
+    }
+}
@@ -27,4 +27,13 @@ public interface ISegmenter {
      * @param reader 文本输入流
      */
     void reset(Reader reader);
+
+    /**
+     * 以字符缓冲区重置分词器状态
+     *
+     * @param text   字符缓冲区
+     * @param offset 起始位置
+     * @param length 字符长度
+     */
+    void reset(char[] text, int offset, int length);
 }
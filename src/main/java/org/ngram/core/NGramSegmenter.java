@@ -1,7 +1,9 @@
 package org.ngram.core;
 
+import org.apache.lucene.util.ArrayUtil;
 import org.ngram.config.Configuration;
-import org.ngram.dictionary.Dictionary;
+import org.ngram.dictionary.DictionaryPreFilter;
+import org.ngram.dictionary.DictionarySnapshot;
 
 import java.io.IOException;
 import java.io.Reader;
@@ -18,30 +20,57 @@ import java.util.LinkedList;
 public class NGramSegmenter implements ISegmenter {
 
     /**
-     * 待分词文本内容
+     * 待分词文本内容，缓冲区在多次分词之间复用
      */
-    private String content;
+    private char[] buffer;
+
+    /**
+     * 缓冲区中有效字符的长度
+     */
+    private int length;
 
     /**
      * 4kb 数据页大小，提升内存利用率，Linux内存数据页默认为4kb
      */
     private static final int BUFFER_SIZE = 4096;
 
-    private LinkedList<Term> terms;
+    private static final char[] EMPTY_BUFFER = new char[0];
+
+    private final LinkedList<Term> terms;
 
     private Reader input;
 
     /**
-     * 词库文件
+     * 本次分词使用的词典快照，一次分词过程中不会变化
+     */
+    private DictionarySnapshot dictionary;
+
+    /**
+     * 本次分词因停用词 / 高频被丢弃的 gram 数
      */
-    private Dictionary dictionary;
+    private int prunedStopwordTerms;
 
-    private Configuration configuration;
+    private int prunedFrequentTerms;
 
+    private final Configuration configuration;
+
+    private final int minGram;
+
+    private final int maxGram;
+
+    private final CharNormalizer normalizer;
+
+    /**
+     * 配置在创建 factory 时已经解析好，这里只引用不计算，缓冲区在首次读取文本时才分配
+     */
     public NGramSegmenter(Reader input, Configuration configuration) {
         this.input = input;
         this.configuration = configuration;
+        this.minGram = configuration.getMinGram();
+        this.maxGram = configuration.getMaxGram();
+        this.normalizer = configuration.getNormalizer();
         this.terms = new LinkedList<>();
+        this.buffer = EMPTY_BUFFER;
     }
 
     /**
@@ -49,18 +78,106 @@ public class NGramSegmenter implements ISegmenter {
      */
     @Override
     public void analyze() {
-        int minGram = configuration.getMinGram();
-        int maxGram = configuration.getMaxGram();
+        boolean matching = dictionary != null && configuration.isUseDictionary();
+        boolean pruning = dictionary != null && configuration.isPruning();
 
         // n-Gram 分词逻辑非常简单，就是一个滑动窗口执行即可
-        for (int i = 0; i < content.length() + minGram; i++) {
-            for (int j = i + minGram; j < i + maxGram + 1 && j < content.length(); j++) {
+        // 默认窗口不包含最后一个字符，与已有索引中的词元保持一致
+        int end = configuration.isTrailingGrams() ? length : length - 1;
+        for (int i = 0; i < length; i++) {
+            for (int j = i + minGram; j <= i + maxGram && j <= end; j++) {
+                if (pruning && prune(i, j - i)) {
+                    continue;
+                }
                 // 添加词
-                terms.add(new Term(content.substring(i, j), i, j, TermTypeEnum.N_GRAM));
+                terms.add(new Term(new String(buffer, i, j - i), i, j, TermTypeEnum.N_GRAM));
+            }
+
+            if (matching) {
+                matchDictionary(i, maxGram + 1);
+            }
+        }
+
+        if (prunedStopwordTerms > 0) {
+            SegmenterStats.addPrunedStopwordTerms(prunedStopwordTerms);
+        }
+        if (prunedFrequentTerms > 0) {
+            SegmenterStats.addPrunedFrequentTerms(prunedFrequentTerms);
+        }
+    }
+
+    /**
+     * 判断 gram 是否需要丢弃
+     * 停用词和高频词对召回几乎没有帮助，却会让倒排表膨胀
+     */
+    private boolean prune(int begin, int len) {
+        int weight = dictionary.weight(buffer, begin, len);
+        if (weight == DictionarySnapshot.NO_WEIGHT) {
+            return false;
+        }
+        if (weight == DictionarySnapshot.STOP_WEIGHT) {
+            if (configuration.isPruneStopwords()) {
+                prunedStopwordTerms++;
+                return true;
+            }
+            return false;
+        }
+        int maxGramFrequency = configuration.getMaxGramFrequency();
+        if (maxGramFrequency > 0 && weight > maxGramFrequency) {
+            prunedFrequentTerms++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 查找以 begin 开头的词典词
+     * 长度不超过 maxGram 的词已经被 gram 覆盖，所以只查更长的词
+     *
+     * @param begin     起始位置
+     * @param minLength 最短词长
+     */
+    private void matchDictionary(int begin, int minLength) {
+        int maxLength = Math.min(dictionary.getMaxWordLength(), length - begin);
+        if (maxLength < minLength) {
+            return;
+        }
+        // 先用两次数组读取过滤掉不可能成词的位置，绝大部分位置到这里就结束了
+        DictionaryPreFilter preFilter = dictionary.getPreFilter();
+        if (preFilter != null) {
+            maxLength = Math.min(maxLength, preFilter.maxWordLength(buffer, begin));
+            if (maxLength < minLength) {
+                return;
+            }
+        }
+        for (int len = minLength; len <= maxLength; len++) {
+            if (dictionary.contains(buffer, begin, len)) {
+                terms.add(new Term(new String(buffer, begin, len), begin, begin + len, TermTypeEnum.CN_WORD));
             }
         }
     }
 
+    /**
+     * 获取本次分词使用的词典快照，词典按照与文本相同的方式归一化
+     */
+    private void resolveDictionary() {
+        prunedStopwordTerms = 0;
+        prunedFrequentTerms = 0;
+        if (!configuration.isDictionaryRequired()) {
+            dictionary = null;
+            return;
+        }
+        dictionary = configuration.getDictionary().get().normalize(normalizer);
+    }
+
+    public int getPrunedStopwordTerms() {
+        return prunedStopwordTerms;
+    }
+
+    public int getPrunedFrequentTerms() {
+        return prunedFrequentTerms;
+    }
+
     @Override
     public Term next() {
         return terms.poll();
@@ -69,33 +186,60 @@ public class NGramSegmenter implements ISegmenter {
     /**
      * 一次性读取所有带分词的列表
      * 这里不考虑待分配文本过大，从而需要分批次读取分析的复杂情况
+     * 每读入一段就地做字符归一化，归一化与读取共用一次遍历
      *
      * @throws IOException
      */
     private void readContent() {
-        char[] buffer = new char[BUFFER_SIZE];
-        int size = 0;
-        StringBuilder text = new StringBuilder();
+        if (buffer.length == 0) {
+            buffer = new char[BUFFER_SIZE];
+        }
+        int size;
         try {
-            while (((size = input.read(buffer)) > 0)) {
-                text.append(buffer, 0, size);
+            while ((size = input.read(buffer, length, buffer.length - length)) > 0) {
+                normalizer.normalize(buffer, length, size);
+                length += size;
+                if (length == buffer.length) {
+                    buffer = ArrayUtil.grow(buffer, length + 1);
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
-        this.content = text.toString();
     }
 
     @Override
     public void reset(Reader input) {
         terms.clear();
-        content = "";
+        length = 0;
         this.input = input;
 
         // 执行分词初始化，一旦初始化就读取文本执行分词算法
         // 这块如果不这样的话，在elasticsearch 分词插件调用函数顺序上会有其他复杂度需要去考虑
         // 总而言之，这样是在代码结构上最简便的
         readContent();
+        resolveDictionary();
+        analyze();
+    }
+
+    /**
+     * 直接对一段字符缓冲区执行分词，供 token filter 对上游词元就地切分使用
+     * 不经过 Reader，只会把字符拷贝到复用的缓冲区中
+     *
+     * @param text   字符缓冲区
+     * @param offset 起始位置
+     * @param length 字符长度
+     */
+    @Override
+    public void reset(char[] text, int offset, int length) {
+        terms.clear();
+        this.input = null;
+
+        buffer = ArrayUtil.grow(buffer, length);
+        normalizer.copy(text, offset, buffer, 0, length);
+        this.length = length;
+
+        resolveDictionary();
         analyze();
     }
 }
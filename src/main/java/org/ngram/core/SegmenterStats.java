@@ -0,0 +1,41 @@
+package org.ngram.core;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 分词统计
+ * 节点级别的累计计数，所有分词器共用，自节点启动起累计，不区分索引
+ * 索引时与查询时的分析（包括 _analyze、批量分词接口）都会计入
+ */
+
+public final class SegmenterStats {
+
+    /**
+     * 因命中停用词被丢弃的 gram 数
+     */
+    private static final LongAdder PRUNED_STOPWORD_TERMS = new LongAdder();
+
+    /**
+     * 因词频超过上限被丢弃的 gram 数
+     */
+    private static final LongAdder PRUNED_FREQUENT_TERMS = new LongAdder();
+
+    private SegmenterStats() {
+    }
+
+    static void addPrunedStopwordTerms(long count) {
+        PRUNED_STOPWORD_TERMS.add(count);
+    }
+
+    static void addPrunedFrequentTerms(long count) {
+        PRUNED_FREQUENT_TERMS.add(count);
+    }
+
+    public static long getPrunedStopwordTerms() {
+        return PRUNED_STOPWORD_TERMS.sum();
+    }
+
+    public static long getPrunedFrequentTerms() {
+        return PRUNED_FREQUENT_TERMS.sum();
+    }
+}
@@ -0,0 +1,36 @@
+package org.ngram.core;
+
+/**
+ * 词元写入索引时的编码方式
+ */
+
+public enum TermEncodingEnum {
+    /**
+     * lucene 默认的 UTF-8 编码，中文每个字 3 个字节
+     */
+    UTF8("utf8"),
+
+    /**
+     * 每个 UTF-16 字符固定 2 个字节，中文二元 gram 由 6 个字节缩小为 4 个字节
+     */
+    PACKED("packed");
+
+    private String name;
+
+    public String getName() {
+        return this.name;
+    }
+
+    TermEncodingEnum(String name) {
+        this.name = name;
+    }
+
+    public static TermEncodingEnum fromName(String name) {
+        for (TermEncodingEnum encoding : values()) {
+            if (encoding.name.equalsIgnoreCase(name)) {
+                return encoding;
+            }
+        }
+        throw new IllegalArgumentException("unknown term_encoding [" + name + "], expected [utf8] or [packed]");
+    }
+}
@@ -9,7 +9,12 @@ public enum TermTypeEnum {
     /**
      * N-Gram 滑动窗口分词词性 （可以理解为无词性）
      */
-    N_GRAM("n_gram");
+    N_GRAM("n_gram"),
+
+    /**
+     * 词典中匹配到的词
+     */
+    CN_WORD("cn_word");
 
     private String name;
 
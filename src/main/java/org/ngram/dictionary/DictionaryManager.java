@@ -0,0 +1,444 @@
+package org.ngram.dictionary;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.SpecialPermission;
+import org.elasticsearch.common.io.PathUtils;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.plugin.analysis.ngram.AnalysisNGramPlugin;
+import org.ngram.core.CharNormalizer;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 词典的加载、监控与快照
+ * 词典在后台线程中异步加载，不会阻塞节点启动和索引打开，
+ * 加载完成前分词使用空词典，之后每次重新加载都会整体替换为新的快照
+ * <p>
+ * 插件通过 {@link Dictionary} 使用节点内唯一的实例；每个实例的状态相互独立，
+ * 测试可以创建自己的实例，并通过 {@link org.ngram.config.Configuration} 的词典快照来源注入分词器
+ */
+
+public class DictionaryManager {
+
+    private static final Logger logger = LogManager.getLogger(DictionaryManager.class);
+
+    /**
+     * 词典加载与监控线程池，由插件创建并负责关闭
+     */
+    private ScheduledExecutorService scheduledPool;
+
+    /**
+     * 远程词典下载线程池，由插件创建并负责关闭
+     */
+    private Executor fetchPool;
+
+    private final AtomicBoolean initialized = new AtomicBoolean();
+
+    /**
+     * 本地词典与远程词典缓存首次发布（无论成功与否）后打开，不等待远程词典下载
+     */
+    private final CountDownLatch ready = new CountDownLatch(1);
+
+    private static final String CONFIG_DIR_NAME = "config";
+
+    private static final String CONFIG_FILE_NAME = "analyzer.cfg.xml";
+
+    private static final String LOCAL_DICTIONARY_FILE_NAME_KEY = "ext_dict";
+
+    private static final String REMOTE_DICTIONARY_ADDRESS_KEY = "remote_ext_dict";
+
+    private static final String STOPWORDS_FILE_NAME_KEY = "ext_stopwords";
+
+    /**
+     * 远程词典本地缓存目录，位于节点数据目录下的插件目录中，配置目录是只读的
+     */
+    private static final String REMOTE_CACHE_DIR_NAME = "remote_cache";
+
+    /**
+     * 本地词典文件修改后的静默期
+     */
+    private static final long LOCAL_DICTIONARY_DEBOUNCE_MILLIS = 2000;
+
+    /**
+     * 多个远程词典地址之间的分隔符
+     */
+    private static final String REMOTE_DICTIONARY_ADDRESS_SEPARATOR = ";";
+
+    /**
+     * 远程词典监控，没有配置远程词典时为 null
+     */
+    private DictionaryMonitorThread remoteMonitor;
+
+    /**
+     * 所有配置文件和相关词典存储的位置
+     */
+    private Path configDir;
+
+    private Path configFile;
+
+    private Path localDictionaryFile;
+
+    private Path stopwordsFile;
+
+    /**
+     * 词典map， 支持添加多个词典
+     */
+    private final Map<String, List<String>> dictMap = new ConcurrentHashMap<>();
+
+    /**
+     * 停用词表
+     */
+    private volatile List<String> stopwords = new ArrayList<>();
+
+    /**
+     * 所有词典合并后的快照，每次重新加载后整体替换
+     */
+    private volatile DictionarySnapshot snapshot = DictionarySnapshot.EMPTY;
+
+    private long version;
+
+    /**
+     * 本地词典文件 -> 最近一次实际读取的内容的校验和，文件监听以此判断是否需要重新加载
+     */
+    private final Map<Path, Long> loadedChecksums = new ConcurrentHashMap<>();
+
+    /**
+     * 分词配置中用到的字符归一化方式，重新加载时预先生成对应的归一化快照
+     */
+    private final Set<CharNormalizer> normalizers = ConcurrentHashMap.newKeySet();
+
+
+    /**
+     * 在后台线程池中异步初始化词典，立即返回
+     * 由插件在节点启动时调用，只会生效一次
+     *
+     * @param environment   es 环境配置
+     * @param executor      词典加载与监控线程池
+     * @param fetchExecutor 远程词典下载线程池
+     */
+    public void initialize(Environment environment, ScheduledExecutorService executor, Executor fetchExecutor) {
+        if (!initialized.compareAndSet(false, true)) {
+            logger.info("dictionary has been initialized.");
+            return;
+        }
+        scheduledPool = executor;
+        fetchPool = fetchExecutor;
+        executor.execute(() -> {
+            try {
+                init(environment);
+            } catch (Exception e) {
+                logger.error("dictionary init fail", e);
+            } finally {
+                // 初始化中途失败时也要打开，避免等待词典的索引一直等到超时
+                ready.countDown();
+            }
+        });
+    }
+
+    /**
+     * @return 本地词典与远程词典缓存是否已首次发布
+     */
+    public boolean isReady() {
+        return ready.getCount() == 0;
+    }
+
+    /**
+     * 等待本地词典与远程词典缓存首次发布，远程词典下载在之后进行，不在等待范围内
+     *
+     * @param timeout 最长等待时间
+     * @return 是否已加载完成
+     */
+    public boolean awaitReady(TimeValue timeout) {
+        if (isReady() || !initialized.get()) {
+            return isReady();
+        }
+        try {
+            return ready.await(timeout.millis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return isReady();
+        }
+    }
+
+    /**
+     * 初始化字典类
+     */
+    private void init(Environment environment) {
+        InputStream input = null;
+        try {
+            // 用es环境配置类来读取配置
+            configDir = environment.configFile().resolve(AnalysisNGramPlugin.PLUGIN_NAME);
+            configFile = configDir.resolve(CONFIG_FILE_NAME);
+            input = new FileInputStream(configFile.toFile());
+        } catch (Exception e) {
+            // 用插件绝对路径来获取配置文件
+            try {
+                logger.info("get environment fail, try to get AnalysisNGramPlugin class file absolute Path");
+                configDir = PathUtils.get(new File(AnalysisNGramPlugin.class.getProtectionDomain().getCodeSource().getLocation().getPath())
+                        .getParent(), CONFIG_DIR_NAME)
+                        .toAbsolutePath();
+                configFile = configDir.resolve(CONFIG_FILE_NAME);
+                input = new FileInputStream(configFile.toFile());
+            } catch (FileNotFoundException e1) {
+                logger.error("n-gram analyzer error", e1);
+            }
+        }
+
+
+
+        // 读取xml配置
+        Properties properties = new Properties();
+        if (input != null) {
+            try {
+                properties.loadFromXML(input);
+            } catch (Exception ex) {
+                logger.error("load " + CONFIG_FILE_NAME + " fail", ex);
+            }
+        }
+
+        // 设置本地词典地址
+        String localDictionaryFileName = properties.getProperty(LOCAL_DICTIONARY_FILE_NAME_KEY);
+        localDictionaryFile = localDictionaryFileName == null ? null : configDir.resolve(localDictionaryFileName);
+
+        // 设置停用词表地址
+        String stopwordsFileName = properties.getProperty(STOPWORDS_FILE_NAME_KEY);
+        stopwordsFile = stopwordsFileName == null || "".equals(stopwordsFileName) ? null : configDir.resolve(stopwordsFileName);
+
+        // 设置远程地址，多个地址用 ; 分隔
+        List<String> remoteDictionaryAddresses = new ArrayList<>();
+        String remoteDictionaryAddress = properties.getProperty(REMOTE_DICTIONARY_ADDRESS_KEY);
+        if (remoteDictionaryAddress != null) {
+            for (String address : remoteDictionaryAddress.split(REMOTE_DICTIONARY_ADDRESS_SEPARATOR)) {
+                if (!"".equals(address.trim())) {
+                    remoteDictionaryAddresses.add(address.trim());
+                }
+            }
+        }
+        remoteMonitor = remoteDictionaryAddresses.isEmpty() ? null
+                : new DictionaryMonitorThread(remoteDictionaryAddresses, fetchPool, scheduledPool,
+                remoteCacheDir(environment), this::publishRemoteDictionary);
+
+        // 先从本地缓存恢复远程词典，之后的下载走条件请求，远程服务不可用时继续使用缓存
+        if (remoteMonitor != null) {
+            logger.info("load remote dictionary cache count:" + remoteMonitor.loadCache());
+            putRemoteDictionary(remoteMonitor.getSources());
+        }
+
+        // 本地词典与远程词典缓存立即生成第一份快照，不等待远程下载（最长可能要等到下载超时）
+        loadLocalDictionaryPrivileged();
+        rebuildSnapshot();
+        ready.countDown();
+
+        // 再下载远程词典，有更新时重新生成快照
+        reloadRemoteDictionary();
+
+        // 开启监控任务，首次加载已经拉取过远程词典，一个周期后再开始检查
+        if (remoteMonitor != null) {
+            scheduledPool.scheduleAtFixedRate(remoteMonitor, 60, 60, TimeUnit.SECONDS);
+        }
+
+        // 监听本地词典文件，修改后在后台重新加载，不需要重启节点
+        List<Path> localFiles = new ArrayList<>();
+        if (localDictionaryFile != null) {
+            localFiles.add(localDictionaryFile);
+        }
+        if (stopwordsFile != null) {
+            localFiles.add(stopwordsFile);
+        }
+        if (!localFiles.isEmpty()) {
+            scheduledPool.execute(new LocalDictionaryWatcher(localFiles, LOCAL_DICTIONARY_DEBOUNCE_MILLIS,
+                    file -> loadedChecksums.getOrDefault(file, -1L), this::reloadLocalDictionary));
+        }
+    }
+
+
+    /**
+     * @return 远程词典本地缓存目录，没有可用的数据目录时返回 null，不缓存
+     */
+    private static Path remoteCacheDir(Environment environment) {
+        Path[] dataFiles = environment == null ? null : environment.dataFiles();
+        if (dataFiles == null || dataFiles.length == 0) {
+            logger.warn("no data path, remote dictionary cache is disabled.");
+            return null;
+        }
+        return dataFiles[0].resolve(AnalysisNGramPlugin.PLUGIN_NAME).resolve(REMOTE_CACHE_DIR_NAME);
+    }
+
+    /**
+     * 重新加载词典
+     */
+    public void reload(){
+        logger.info("start to reload dictionary.");
+
+        // 获取本地词典
+        loadLocalDictionaryPrivileged();
+
+        // 获取远程新词典，所有远程源并发下载，全部完成后与本地词典一起生成一次快照
+        loadRemoteDictionary();
+
+        rebuildSnapshot();
+        logger.info("reload dictionary finished.");
+    }
+
+    /**
+     * @return 当前词典快照
+     */
+    public DictionarySnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * 合并所有词典生成新的快照并发布
+     */
+    private synchronized void rebuildSnapshot() {
+        List<String> words = new ArrayList<>();
+        for (List<String> dict : dictMap.values()) {
+            words.addAll(dict);
+        }
+        DictionarySnapshot next = DictionarySnapshot.build(words, stopwords, ++version);
+        next.prepareNormalized(normalizers);
+        snapshot = next;
+        logger.info("dictionary snapshot version:" + version + " count:" + snapshot.size());
+    }
+
+    /**
+     * 登记分词配置使用的字符归一化方式，之后每次重新加载都会在发布前生成对应的归一化快照
+     * 首次登记时在当前线程为当前快照生成一次
+     */
+    public void registerNormalizer(CharNormalizer normalizer) {
+        if (normalizer.isEnabled() && normalizers.add(normalizer)) {
+            snapshot.normalize(normalizer);
+        }
+    }
+
+    public void reloadLocalDictionary(){
+        loadLocalDictionary();
+        rebuildSnapshot();
+    }
+
+    private void loadStopwords(){
+        if (stopwordsFile == null) {
+            return;
+        }
+        try {
+            List<String> words = readLines(stopwordsFile);
+
+            logger.info("load stopwords count:" + words.size());
+
+            stopwords = words;
+        } catch (IOException e) {
+            logger.error("stopwords load fail", e);
+        }
+    }
+
+    /**
+     * 立即检查所有远程词典源，有更新时重新生成快照
+     */
+    public void reloadRemoteDictionary(){
+        if (loadRemoteDictionary()) {
+            rebuildSnapshot();
+        }
+    }
+
+    /**
+     * 将远程词典源最近一次成功下载的词表合并进词典并生成新的快照
+     */
+    private void publishRemoteDictionary(List<RemoteDictionarySource> sources){
+        putRemoteDictionary(sources);
+        rebuildSnapshot();
+    }
+
+    private boolean loadRemoteDictionary(){
+        if (remoteMonitor == null) {
+            logger.info("remoteDictionaryAddress is null , dictionary do not download.");
+            return false;
+        }
+        boolean updated = remoteMonitor.refresh(true).join();
+        putRemoteDictionary(remoteMonitor.getSources());
+        return updated;
+    }
+
+    private void putRemoteDictionary(List<RemoteDictionarySource> sources){
+        for (RemoteDictionarySource source : sources) {
+            List<String> words = source.getWords();
+            if (words != null) {
+                dictMap.put(REMOTE_DICTIONARY_ADDRESS_KEY + "#" + source.getAddress(), words);
+            }
+        }
+    }
+
+    private void loadLocalDictionaryPrivileged(){
+        // 需要校验权限问题
+        SpecialPermission.check();
+        AccessController.doPrivileged((PrivilegedAction<Void>) () -> {
+            loadLocalDictionary();
+            return null;
+        });
+    }
+
+    private void loadLocalDictionary(){
+        loadStopwords();
+        if (localDictionaryFile == null) {
+            logger.info("localDictionaryFile is null , dictionary do not load.");
+            return;
+        }
+        try {
+            List<String> dict = readLines(localDictionaryFile);
+
+            logger.info("load local dictionary count:" + dict.size());
+
+            dictMap.put(LOCAL_DICTIONARY_FILE_NAME_KEY, dict);
+        } catch (IOException e) {
+            logger.error("local dictionary load fail", e);
+        }
+    }
+
+    /**
+     * 按行读取本地词典文件，并记录读取到的内容的校验和
+     */
+    private List<String> readLines(Path file) throws IOException {
+        Path path = LocalDictionaryWatcher.normalize(file);
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(path);
+        } catch (IOException e) {
+            loadedChecksums.put(path, -1L);
+            throw e;
+        }
+        loadedChecksums.put(path, LocalDictionaryWatcher.checksum(bytes));
+
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+}
@@ -1,19 +1,36 @@
 package org.ngram.dictionary;
 
-import org.apache.http.client.config.RequestConfig;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpHead;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.elasticsearch.SpecialPermission;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * 词典监控线程
+ * 每个周期把所有未处于退避期、上一次检查已经结束的远程词典源分别提交到下载线程池，
+ * 每个源独立完成检查，缓慢的源不会拖住其它源和之后的周期；
+ * 每次请求都有总的截止时间，超时后中断连接
+ * <p>
+ * 有更新的源不会各自触发一次快照重建：第一个更新的源到达后等待 {@link #PUBLISH_DELAY_MILLIS} 的合并窗口，
+ * 窗口内陆续完成的源一起发布，N 个源在相近的时间更新只重建一次快照；窗口之后才完成的慢源单独再发布一次
  *
  * @author yanxin
  * @date 2021/3/7
@@ -23,79 +40,225 @@ public class DictionaryMonitorThread implements Runnable {
 
     private static final Logger logger = LogManager.getLogger(DictionaryMonitorThread.class);
 
-    private static CloseableHttpClient httpclient = HttpClients.createDefault();
+    /**
+     * 单次请求从发起到读取完词表的最长时间
+     */
+    static final long REQUEST_DEADLINE_MILLIS = 2 * 60 * 1000;
+
+    /**
+     * 最大连接数，多个词典通常部署在同一个服务上，单个地址的连接数与总数一致，不使用默认的每个地址 2 个
+     */
+    private static final int MAX_CONNECTIONS = 16;
+
+    /**
+     * 发布更新前的合并窗口，窗口内完成更新的源合并为一次快照重建
+     */
+    static final long PUBLISH_DELAY_MILLIS = 1000;
+
+    private static CloseableHttpClient httpclient = createHttpClient();
+
+    private final List<RemoteDictionarySource> sources;
+
+    /**
+     * 下载线程池
+     */
+    private final Executor executor;
+
+    /**
+     * 请求截止时间的定时器
+     */
+    private final ScheduledExecutorService scheduler;
+
+    private final long deadlineMillis;
+
+    private final long publishDelayMillis;
 
     /**
-     * 上次更改时间
+     * 周期检查中有源更新时回调，参数为合并窗口内所有更新的源
      */
-    private String lastModified;
+    private final Consumer<List<RemoteDictionarySource>> publisher;
 
     /**
-     * 资源属性
+     * 已经更新、等待合并发布的源
      */
-    private String eTags;
+    private final Set<RemoteDictionarySource> pending = new LinkedHashSet<>();
 
-    private String dictionaryAddress;
+    /**
+     * 是否已经安排了一次发布，由 pending 的锁保护
+     */
+    private boolean publishScheduled;
+
+    /**
+     * @param executor  下载线程池
+     * @param scheduler 请求截止时间的定时器
+     * @param cacheDir  远程词典本地缓存目录，为 null 时不缓存
+     * @param publisher 周期检查中有源更新时回调，合并生成新的词典快照
+     */
+    public DictionaryMonitorThread(List<String> dictionaryAddresses, Executor executor, ScheduledExecutorService scheduler,
+                                   Path cacheDir, Consumer<List<RemoteDictionarySource>> publisher) {
+        this(dictionaryAddresses, executor, scheduler, cacheDir, publisher, REQUEST_DEADLINE_MILLIS, PUBLISH_DELAY_MILLIS);
+    }
+
+    DictionaryMonitorThread(List<String> dictionaryAddresses, Executor executor, ScheduledExecutorService scheduler,
+                            Path cacheDir, Consumer<List<RemoteDictionarySource>> publisher, long deadlineMillis,
+                            long publishDelayMillis) {
+        List<RemoteDictionarySource> sources = new ArrayList<>();
+        for (String address : dictionaryAddresses) {
+            sources.add(new RemoteDictionarySource(address, httpclient, cacheDir == null ? null : cacheDir.resolve(cacheFileName(address))));
+        }
+        this.sources = Collections.unmodifiableList(sources);
+        this.executor = executor;
+        this.scheduler = scheduler;
+        this.publisher = publisher;
+        this.deadlineMillis = deadlineMillis;
+        this.publishDelayMillis = publishDelayMillis;
+    }
 
-    public DictionaryMonitorThread(String dictionaryAddress) {
-        this.dictionaryAddress = dictionaryAddress;
+    private static CloseableHttpClient createHttpClient() {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(MAX_CONNECTIONS);
+        connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS);
+        return HttpClients.custom().setConnectionManager(connectionManager).build();
     }
 
     @Override
     public void run() {
-        SpecialPermission.check();
-        AccessController.doPrivileged((PrivilegedAction<Void>) () -> {
-            this.check();
-            return null;
-        });
+        long now = System.currentTimeMillis();
+        for (RemoteDictionarySource source : sources) {
+            if (!source.isDue(now)) {
+                continue;
+            }
+            CompletableFuture<Boolean> future = submit(source);
+            if (future == null) {
+                logger.info("previous remote_ext_dict {} check is still running, skip.", source.getAddress());
+                continue;
+            }
+            future.whenComplete((updated, e) -> {
+                if (e != null) {
+                    logger.error("remote_ext_dict " + source.getAddress() + " check error", e);
+                } else if (updated) {
+                    // 远程词库有更新,需要重新生成词典快照
+                    schedulePublish(source);
+                }
+            });
+        }
     }
 
     /**
-     * 检查远程词典是否有更新
+     * 把更新的源放入待发布集合，合并窗口内只安排一次发布
      */
-    private void check() {
-        logger.info("remote_ext_dict {} begin check.", dictionaryAddress);
-
-        //超时设置
-        RequestConfig rc = RequestConfig.custom().setConnectionRequestTimeout(10 * 1000)
-                .setConnectTimeout(10 * 1000).setSocketTimeout(15 * 1000).build();
-
-        HttpHead head = new HttpHead(dictionaryAddress);
-        head.setConfig(rc);
-
-        //设置请求头
-        if (lastModified != null) {
-            head.setHeader("If-Modified-Since", lastModified);
+    private void schedulePublish(RemoteDictionarySource source) {
+        synchronized (pending) {
+            pending.add(source);
+            if (publishScheduled) {
+                return;
+            }
+            publishScheduled = true;
         }
-        if (eTags != null) {
-            head.setHeader("If-None-Match", eTags);
+        try {
+            // 定时器只负责计时，快照重建放到下载线程池中执行，不占用请求截止时间的定时器
+            scheduler.schedule(() -> executor.execute(this::publishPending), publishDelayMillis, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            // 定时器已关闭时直接发布
+            publishPending();
         }
+    }
 
-        try (CloseableHttpResponse response = httpclient.execute(head)) {
+    private void publishPending() {
+        List<RemoteDictionarySource> updated;
+        synchronized (pending) {
+            updated = new ArrayList<>(pending);
+            pending.clear();
+            publishScheduled = false;
+        }
+        if (updated.isEmpty()) {
+            return;
+        }
+        try {
+            publisher.accept(updated);
+        } catch (Exception e) {
+            logger.error("publish remote_ext_dict update fail", e);
+        }
+    }
 
-            //返回200 才做操作
-            if (response.getStatusLine().getStatusCode() == 200) {
-                boolean isUpdate = ((response.getLastHeader("Last-Modified") != null) && !response.getLastHeader("Last-Modified").getValue().equalsIgnoreCase(lastModified))
-                        || ((response.getLastHeader("ETag") != null) && !response.getLastHeader("ETag").getValue().equalsIgnoreCase(eTags));
-                if (!isUpdate) {
-                    logger.info("remote_ext_dict {} is not update, Last-Modified={} ETag={}", dictionaryAddress, lastModified, eTags);
-                    return;
+    /**
+     * 并发检查远程词典，上一次检查还没有结束的源跳过
+     *
+     * @param force 是否忽略退避状态
+     * @return 本次提交的源都处理完成后返回是否有源更新
+     */
+    public CompletableFuture<Boolean> refresh(boolean force) {
+        long now = System.currentTimeMillis();
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        for (RemoteDictionarySource source : sources) {
+            if (force || source.isDue(now)) {
+                CompletableFuture<Boolean> future = submit(source);
+                if (future != null) {
+                    futures.add(future);
                 }
-                // 远程词库有更新,需要重新加载词典，并修改last_modified,eTags
-                Dictionary.reloadRemoteDictionary();
-                lastModified = response.getLastHeader("Last-Modified") == null ? null : response.getLastHeader("Last-Modified").getValue();
-                eTags = response.getLastHeader("ETag") == null ? null : response.getLastHeader("ETag").getValue();
-                logger.info("remote_ext_dict {} check is modified {}", dictionaryAddress, response.getStatusLine().getStatusCode());
-            } else if (response.getStatusLine().getStatusCode() == 304) {
-                //没有修改，不做操作
-                //noop
-                logger.info("remote_ext_dict {} is not modified {}", dictionaryAddress, response.getStatusLine().getStatusCode());
-            } else {
-                logger.info("remote_ext_dict {} return bad code {}", dictionaryAddress, response.getStatusLine().getStatusCode());
             }
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).thenApply(v -> {
+            boolean updated = false;
+            for (CompletableFuture<Boolean> future : futures) {
+                updated |= future.join();
+            }
+            return updated;
+        });
+    }
 
+    /**
+     * 提交一个源的检查
+     *
+     * @return 源的上一次检查还没有结束时返回 null
+     */
+    private CompletableFuture<Boolean> submit(RemoteDictionarySource source) {
+        if (!source.tryStart()) {
+            return null;
+        }
+        CompletableFuture<Boolean> future;
+        try {
+            future = CompletableFuture.supplyAsync(() -> check(source), executor);
         } catch (Exception e) {
-            logger.error("remote_ext_dict {} error! {}", dictionaryAddress, e);
+            source.finish();
+            CompletableFuture<Boolean> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
         }
+        return future.whenComplete((updated, e) -> source.finish());
+    }
+
+    /**
+     * 从本地缓存恢复所有远程词典源
+     *
+     * @return 恢复成功的源数量
+     */
+    public int loadCache() {
+        SpecialPermission.check();
+        return AccessController.doPrivileged((PrivilegedAction<Integer>) () -> {
+            int loaded = 0;
+            for (RemoteDictionarySource source : sources) {
+                if (source.loadCache()) {
+                    loaded++;
+                }
+            }
+            return loaded;
+        });
+    }
+
+    /**
+     * 地址中可能包含文件名不允许的字符，按地址生成固定的缓存文件名
+     */
+    static String cacheFileName(String address) {
+        return UUID.nameUUIDFromBytes(address.getBytes(StandardCharsets.UTF_8)) + ".dic";
+    }
+
+    private boolean check(RemoteDictionarySource source) {
+        SpecialPermission.check();
+        return AccessController.doPrivileged((PrivilegedAction<Boolean>) () -> source.refresh(scheduler, deadlineMillis));
+    }
+
+    public List<RemoteDictionarySource> getSources() {
+        return sources;
     }
 }
@@ -0,0 +1,83 @@
+package org.ngram.dictionary;
+
+/**
+ * 词典查询前置过滤器
+ * 文本中绝大多数位置都不会是任何词的开头，每个位置都去词典里查一遍代价很高，
+ * 这里用 首字最大词长表 + 首二字哈希位图 两次数组读取先把不可能成词的位置过滤掉，
+ * 同时给出该位置可能的最大词长，减少后续按长度逐个查询的次数
+ * <p>
+ * 只会误判为"可能成词"，不会漏判，误判的位置再交给词典做完整查询
+ */
+
+public final class DictionaryPreFilter {
+
+    /**
+     * 首二字哈希位图大小 2^21 bit = 256kb，main.dic 约 15 万个不同的首二字，位图填充率在 7% 左右
+     */
+    private static final int BIGRAM_BITS = 21;
+
+    /**
+     * 以某个字开头的词的最大长度，覆盖整个 BMP，128kb，为 0 表示没有以该字开头的词，
+     * 为 {@link #UNBOUNDED} 时表示词长超出表示范围，不按长度过滤
+     */
+    private final char[] maxLengths = new char[Character.MAX_VALUE + 1];
+
+    private static final char UNBOUNDED = Character.MAX_VALUE;
+
+    private final long[] firstBigrams = new long[1 << (BIGRAM_BITS - 6)];
+
+    /**
+     * 添加一个词
+     */
+    void add(char[] word) {
+        if (word.length == 0) {
+            return;
+        }
+        char c0 = word[0];
+        maxLengths[c0] = (char) Math.min(UNBOUNDED, Math.max(maxLengths[c0], word.length));
+        if (word.length < 2) {
+            return;
+        }
+        int h = hash(c0, word[1]);
+        firstBigrams[h >>> 6] |= 1L << h;
+    }
+
+    /**
+     * 获取 buffer[offset] 开始的位置可能的最大词长
+     * 调用方保证 offset + 1 < buffer 有效长度
+     *
+     * @return 可能的最大词长，为 0 时表示该位置不可能是任何词的开头
+     */
+    public int maxWordLength(char[] buffer, int offset) {
+        char c0 = buffer[offset];
+        int maxLength = maxLengths[c0];
+        if (maxLength == 0) {
+            return 0;
+        }
+        int h = hash(c0, buffer[offset + 1]);
+        if ((firstBigrams[h >>> 6] & (1L << h)) == 0) {
+            return 0;
+        }
+        return maxLength == UNBOUNDED ? Integer.MAX_VALUE : maxLength;
+    }
+
+    /**
+     * 判断 buffer[offset, offset + length) 是否可能是一个已添加的词
+     */
+    public boolean mightContain(char[] buffer, int offset, int length) {
+        char c0 = buffer[offset];
+        int maxLength = maxLengths[c0];
+        if (maxLength == 0 || (maxLength != UNBOUNDED && maxLength < length)) {
+            return false;
+        }
+        if (length < 2) {
+            return true;
+        }
+        int h = hash(c0, buffer[offset + 1]);
+        return (firstBigrams[h >>> 6] & (1L << h)) != 0;
+    }
+
+    private static int hash(char c0, char c1) {
+        return ((c0 << 16) | c1) * 0x9E3779B1 >>> (32 - BIGRAM_BITS);
+    }
+}
@@ -0,0 +1,224 @@
+package org.ngram.dictionary;
+
+import org.apache.lucene.analysis.CharArrayMap;
+import org.ngram.core.CharNormalizer;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 词典快照
+ * 每次词典重新加载都会生成一个新的不可变快照，分词时只读快照，无需加锁
+ * 词以 {@link CharArrayMap} 存储，可以直接用分词缓冲区的 char[] 区间查询，不产生临时字符串
+ * <p>
+ * 词典每行一个词，可以在词后用 tab 分隔带上词频，如 {@code 中国\t52000}；词本身可以包含空格（如 "iphone 15"），
+ * 只有 tab 才会被当作词频分隔符；停用词表中的词权重记为 {@link #STOP_WEIGHT}
+ */
+
+public final class DictionarySnapshot {
+
+    public static final DictionarySnapshot EMPTY = build(Collections.emptyList(), 0);
+
+    /**
+     * 未配置词频的词
+     */
+    public static final int NO_WEIGHT = 0;
+
+    /**
+     * 停用词
+     */
+    public static final int STOP_WEIGHT = Integer.MAX_VALUE;
+
+    /**
+     * 词与词频之间的分隔符
+     */
+    private static final char WEIGHT_SEPARATOR = '\t';
+
+    private static final char BOM = '\uFEFF';
+
+    private static final Integer NO_WEIGHT_VALUE = NO_WEIGHT;
+
+    private static final Integer STOP_WEIGHT_VALUE = STOP_WEIGHT;
+
+    /**
+     * 词 -> 权重，词典词、带词频的词与停用词共用一张表
+     */
+    private final CharArrayMap<Integer> words;
+
+    private final int maxWordLength;
+
+    /**
+     * 可匹配输出的词（不含停用词）的前置过滤器
+     */
+    private final DictionaryPreFilter preFilter;
+
+    /**
+     * 带词频的词与停用词的前置过滤器，没有这类词时为 null
+     */
+    private final DictionaryPreFilter weightFilter;
+
+    private final long version;
+
+    private final Collection<String> dict;
+
+    private final Collection<String> stopwords;
+
+    /**
+     * 按归一化方式缓存的归一化后快照，保证词典与归一化后的文本用同一套字符比较
+     */
+    private final Map<CharNormalizer, DictionarySnapshot> normalized = new ConcurrentHashMap<>();
+
+    private DictionarySnapshot(CharArrayMap<Integer> words, int maxWordLength, DictionaryPreFilter preFilter,
+                               DictionaryPreFilter weightFilter, long version, Collection<String> dict,
+                               Collection<String> stopwords) {
+        this.words = words;
+        this.maxWordLength = maxWordLength;
+        this.preFilter = preFilter;
+        this.weightFilter = weightFilter;
+        this.version = version;
+        this.dict = dict;
+        this.stopwords = stopwords;
+    }
+
+    public static DictionarySnapshot build(Collection<String> dict, long version) {
+        return build(dict, Collections.emptyList(), version);
+    }
+
+    public static DictionarySnapshot build(Collection<String> dict, Collection<String> stopwords, long version) {
+        return build(dict, stopwords, version, CharNormalizer.none());
+    }
+
+    private static DictionarySnapshot build(Collection<String> dict, Collection<String> stopwords, long version,
+                                            CharNormalizer normalizer) {
+        CharArrayMap<Integer> words = new CharArrayMap<>(dict.size() + stopwords.size(), false);
+        DictionaryPreFilter preFilter = new DictionaryPreFilter();
+        DictionaryPreFilter weightFilter = new DictionaryPreFilter();
+        boolean weighted = false;
+        int maxWordLength = 0;
+
+        for (String line : dict) {
+            String word = strip(line);
+            if (word.isEmpty()) {
+                continue;
+            }
+            int weight = NO_WEIGHT;
+            int separator = word.lastIndexOf(WEIGHT_SEPARATOR);
+            if (separator > 0) {
+                try {
+                    weight = Math.max(NO_WEIGHT, Integer.parseInt(word.substring(separator + 1)));
+                    word = word.substring(0, separator).trim();
+                } catch (NumberFormatException e) {
+                    // 不是词频，整行作为词
+                }
+            }
+            char[] chars = normalize(word, normalizer);
+            Integer previous = words.get(chars, 0, chars.length);
+            if (previous != null && previous >= weight) {
+                continue;
+            }
+            words.put(chars, weight == NO_WEIGHT ? NO_WEIGHT_VALUE : Integer.valueOf(weight));
+            preFilter.add(chars);
+            if (weight != NO_WEIGHT) {
+                weightFilter.add(chars);
+                weighted = true;
+            }
+            maxWordLength = Math.max(maxWordLength, chars.length);
+        }
+
+        for (String line : stopwords) {
+            String word = strip(line);
+            if (word.isEmpty()) {
+                continue;
+            }
+            char[] chars = normalize(word, normalizer);
+            words.put(chars, STOP_WEIGHT_VALUE);
+            weightFilter.add(chars);
+            weighted = true;
+        }
+
+        return new DictionarySnapshot(words, maxWordLength, preFilter, weighted ? weightFilter : null, version, dict, stopwords);
+    }
+
+    private static String strip(String line) {
+        String word = line.trim();
+        if (!word.isEmpty() && word.charAt(0) == BOM) {
+            word = word.substring(1).trim();
+        }
+        return word;
+    }
+
+    private static char[] normalize(String word, CharNormalizer normalizer) {
+        char[] chars = word.toCharArray();
+        normalizer.normalize(chars, 0, chars.length);
+        return chars;
+    }
+
+    /**
+     * 获取按指定方式归一化后的快照
+     */
+    public DictionarySnapshot normalize(CharNormalizer normalizer) {
+        if (!normalizer.isEnabled()) {
+            return this;
+        }
+        return normalized.computeIfAbsent(normalizer, n -> build(dict, stopwords, version, n));
+    }
+
+    /**
+     * 在发布快照前预先生成各归一化方式下的快照
+     * 由重新加载词典的线程调用，避免发布后第一个分词线程在 normalize 中重建整个词典，其它分词线程等待
+     */
+    void prepareNormalized(Collection<CharNormalizer> normalizers) {
+        for (CharNormalizer normalizer : normalizers) {
+            normalize(normalizer);
+        }
+    }
+
+    /**
+     * 去掉前置过滤器的快照，仅用于对比前置过滤器的效果
+     */
+    DictionarySnapshot withoutPreFilter() {
+        return new DictionarySnapshot(words, maxWordLength, null, weightFilter, version, dict, stopwords);
+    }
+
+    /**
+     * @return 是否为可以输出的词典词，停用词不算
+     */
+    public boolean contains(char[] buffer, int offset, int length) {
+        Integer weight = words.get(buffer, offset, length);
+        return weight != null && weight != STOP_WEIGHT;
+    }
+
+    /**
+     * 查询词的权重，先经过前置过滤器，绝大多数 gram 只需要两次数组读取
+     *
+     * @return 词频，停用词为 {@link #STOP_WEIGHT}，不在词典或未配置词频时为 {@link #NO_WEIGHT}
+     */
+    public int weight(char[] buffer, int offset, int length) {
+        if (weightFilter == null || !weightFilter.mightContain(buffer, offset, length)) {
+            return NO_WEIGHT;
+        }
+        Integer weight = words.get(buffer, offset, length);
+        return weight == null ? NO_WEIGHT : weight;
+    }
+
+    /**
+     * @return 前置过滤器，为 null 时表示不做前置过滤
+     */
+    public DictionaryPreFilter getPreFilter() {
+        return preFilter;
+    }
+
+    public int getMaxWordLength() {
+        return maxWordLength;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return words.size();
+    }
+}
@@ -0,0 +1,188 @@
+package org.ngram.dictionary;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.SpecialPermission;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+import java.util.zip.CRC32;
+
+/**
+ * 本地词典监控线程
+ * 基于 {@link WatchService} 监听词典文件所在目录，不需要定时轮询大文件
+ * 编辑器保存、分发工具覆盖文件时往往会连续产生多个修改事件，这里等待一段静默期后才处理，
+ * 并且用文件校验和跳过内容没有变化的改写
+ * 校验和与实际加载进词典的内容比较，监听注册完成后立即检查一次，加载之后、监听开始之前的修改也不会丢失
+ */
+
+public class LocalDictionaryWatcher implements Runnable {
+
+    private static final Logger logger = LogManager.getLogger(LocalDictionaryWatcher.class);
+
+    private static final int CHECKSUM_BUFFER_SIZE = 8192;
+
+    /**
+     * 被监控的文件
+     */
+    private final Set<Path> files = new HashSet<>();
+
+    /**
+     * 静默期，最后一次修改事件之后超过该时间没有新的事件才重新加载
+     */
+    private final long debounceMillis;
+
+    /**
+     * 文件 -> 最近一次实际加载的内容的校验和
+     */
+    private final ToLongFunction<Path> loadedChecksum;
+
+    private final Runnable reload;
+
+    /**
+     * @param files          需要监控的文件
+     * @param debounceMillis 静默期
+     * @param loadedChecksum 返回文件最近一次实际加载的内容的校验和，与 {@link #checksum(byte[])} 的算法一致
+     * @param reload         文件内容变化后执行的重新加载操作
+     */
+    public LocalDictionaryWatcher(Collection<Path> files, long debounceMillis, ToLongFunction<Path> loadedChecksum,
+                                  Runnable reload) {
+        this.debounceMillis = debounceMillis;
+        this.loadedChecksum = loadedChecksum;
+        this.reload = reload;
+        for (Path file : files) {
+            this.files.add(normalize(file));
+        }
+    }
+
+    @Override
+    public void run() {
+        SpecialPermission.check();
+        AccessController.doPrivileged((PrivilegedAction<Void>) () -> {
+            this.watch();
+            return null;
+        });
+    }
+
+    private void watch() {
+        if (files.isEmpty()) {
+            return;
+        }
+        Set<Path> directories = new HashSet<>();
+        for (Path file : files) {
+            directories.add(file.getParent());
+        }
+
+        try (WatchService watchService = directories.iterator().next().getFileSystem().newWatchService()) {
+            // 一个 WatchService 监听所有词典文件所在的目录，只占用一个线程
+            for (Path directory : directories) {
+                directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            }
+            logger.info("local dictionary watcher started, files: {}", files);
+
+            // 首次加载与监听注册之间的修改不会产生事件，注册完成后先检查一次
+            reloadIfModified(files);
+
+            while (!Thread.currentThread().isInterrupted()) {
+                Set<Path> changed = new HashSet<>();
+                WatchKey key = watchService.take();
+                collect(key, changed);
+
+                // 静默期内持续有事件就继续等待
+                while ((key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS)) != null) {
+                    collect(key, changed);
+                }
+
+                reloadIfModified(changed);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.error("local dictionary watcher error", e);
+        }
+        logger.info("local dictionary watcher stopped.");
+    }
+
+    private void collect(WatchKey key, Set<Path> changed) {
+        Path directory = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            Object context = event.context();
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // 事件丢失，全部文件都需要检查
+                changed.addAll(files);
+            } else if (context instanceof Path) {
+                Path file = directory.resolve((Path) context);
+                if (files.contains(file)) {
+                    changed.add(file);
+                }
+            }
+        }
+        key.reset();
+    }
+
+    private void reloadIfModified(Set<Path> changed) {
+        if (!changed.isEmpty() && isModified(changed)) {
+            logger.info("local dictionary {} changed, start to reload.", changed);
+            reload.run();
+        }
+    }
+
+    /**
+     * @return 是否有文件的内容与最近一次加载的内容不同
+     */
+    private boolean isModified(Set<Path> changed) {
+        boolean modified = false;
+        for (Path file : changed) {
+            if (checksum(file) != loadedChecksum.applyAsLong(file)) {
+                modified = true;
+            } else {
+                logger.info("local dictionary {} is not modified, skip reload.", file);
+            }
+        }
+        return modified;
+    }
+
+    static Path normalize(Path file) {
+        return file.toAbsolutePath().normalize();
+    }
+
+    /**
+     * 计算文件的 CRC32 校验和，文件不存在或读取失败时返回 -1
+     */
+    static long checksum(Path file) {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[CHECKSUM_BUFFER_SIZE];
+        try (InputStream input = Files.newInputStream(file)) {
+            int size;
+            while ((size = input.read(buffer)) > 0) {
+                crc.update(buffer, 0, size);
+            }
+        } catch (IOException e) {
+            return -1;
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * 计算已读取内容的 CRC32 校验和
+     */
+    static long checksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,355 @@
+package org.ngram.dictionary;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 远程词典源
+ * 每个远程词典地址独立记录 Last-Modified / ETag、最近一次成功下载的词表以及失败退避状态，
+ * 一个源失败不会影响其它源，失败后按指数退避，避免每个周期都被同一个坏源拖住；
+ * 每次请求都有总的截止时间，超时后直接中断连接，服务端持续缓慢返回数据也不会无限占用下载线程
+ * <p>
+ * 配置了缓存文件时，每次下载成功后把词表连同 Last-Modified / ETag 写入本地磁盘，
+ * 节点重启后先从缓存恢复，再发起条件请求，远程服务不可用时也不会使用空词典
+ */
+
+public class RemoteDictionarySource {
+
+    private static final Logger logger = LogManager.getLogger(RemoteDictionarySource.class);
+
+    /**
+     * 首次失败后的退避时间
+     */
+    private static final long INITIAL_BACKOFF_MILLIS = 30 * 1000;
+
+    /**
+     * 最长退避时间
+     */
+    private static final long MAX_BACKOFF_MILLIS = 30 * 60 * 1000;
+
+    private static final String LAST_MODIFIED_HEADER = "Last-Modified: ";
+
+    private static final String ETAG_HEADER = "ETag: ";
+
+    private final String address;
+
+    private final CloseableHttpClient httpclient;
+
+    /**
+     * 本地缓存文件，为 null 时不缓存
+     */
+    private final Path cacheFile;
+
+    /**
+     * 上次更改时间
+     */
+    private volatile String lastModified;
+
+    /**
+     * 资源属性
+     */
+    private volatile String eTags;
+
+    /**
+     * 最近一次成功下载的词表，从未成功时为 null
+     */
+    private volatile List<String> words;
+
+    /**
+     * 连续失败次数
+     */
+    private volatile int failures;
+
+    /**
+     * 退避结束时间
+     */
+    private volatile long nextAttemptMillis;
+
+    /**
+     * 是否有检查正在进行，同一个源同时只发起一个请求
+     */
+    private final AtomicBoolean inFlight = new AtomicBoolean();
+
+    public RemoteDictionarySource(String address, CloseableHttpClient httpclient) {
+        this(address, httpclient, null);
+    }
+
+    public RemoteDictionarySource(String address, CloseableHttpClient httpclient, Path cacheFile) {
+        this.address = address;
+        this.httpclient = httpclient;
+        this.cacheFile = cacheFile;
+    }
+
+    /**
+     * @return 当前是否可以发起请求（不在退避期内）
+     */
+    public boolean isDue(long nowMillis) {
+        return nowMillis >= nextAttemptMillis;
+    }
+
+    /**
+     * 标记检查开始
+     *
+     * @return 上一次检查已经结束时返回 true，之后必须调用 {@link #finish()}
+     */
+    boolean tryStart() {
+        return inFlight.compareAndSet(false, true);
+    }
+
+    /**
+     * 标记检查结束
+     */
+    void finish() {
+        inFlight.set(false);
+    }
+
+    /**
+     * 检查并下载远程词典，不限制总的请求时间
+     *
+     * @return 词表是否有更新
+     */
+    public boolean refresh() {
+        return refresh(null, 0);
+    }
+
+    /**
+     * 检查并下载远程词典
+     * 带上 If-Modified-Since / If-None-Match 发起条件请求，未修改时服务端直接返回 304，不传输词表
+     *
+     * @param scheduler      用于在截止时间中断请求，为 null 时不限制总的请求时间
+     * @param deadlineMillis 从发起请求到读取完词表的最长时间
+     * @return 词表是否有更新
+     */
+    public synchronized boolean refresh(ScheduledExecutorService scheduler, long deadlineMillis) {
+        logger.info("remote_ext_dict {} begin check.", address);
+
+        //超时设置
+        RequestConfig rc = RequestConfig.custom().setConnectionRequestTimeout(10 * 1000).setConnectTimeout(10 * 1000)
+                .setSocketTimeout(60 * 1000).build();
+        HttpGet get = new HttpGet(address);
+        get.setConfig(rc);
+
+        //设置请求头
+        if (words != null && lastModified != null) {
+            get.setHeader("If-Modified-Since", lastModified);
+        }
+        if (words != null && eTags != null) {
+            get.setHeader("If-None-Match", eTags);
+        }
+
+        // 连接、读取超时只限制单次等待，这里限制整个请求的时间
+        ScheduledFuture<?> deadline = scheduler == null ? null
+                : scheduler.schedule(get::abort, deadlineMillis, TimeUnit.MILLISECONDS);
+        try (CloseableHttpResponse response = httpclient.execute(get)) {
+            int code = response.getStatusLine().getStatusCode();
+            if (code == 304) {
+                //没有修改，不做操作
+                logger.info("remote_ext_dict {} is not modified {}", address, code);
+                onSuccess();
+                return false;
+            }
+            if (code != 200) {
+                EntityUtils.consumeQuietly(response.getEntity());
+                onFailure("bad code " + code, null);
+                return false;
+            }
+
+            String newLastModified = response.getLastHeader("Last-Modified") == null ? null : response.getLastHeader("Last-Modified").getValue();
+            String newETags = response.getLastHeader("ETag") == null ? null : response.getLastHeader("ETag").getValue();
+            // 服务端不支持条件请求时，根据响应头判断是否有更新
+            boolean isUpdate = words == null
+                    || (newLastModified != null && !newLastModified.equalsIgnoreCase(lastModified))
+                    || (newETags != null && !newETags.equalsIgnoreCase(eTags))
+                    || (newLastModified == null && newETags == null);
+            if (!isUpdate) {
+                EntityUtils.consumeQuietly(response.getEntity());
+                logger.info("remote_ext_dict {} is not update, Last-Modified={} ETag={}", address, lastModified, eTags);
+                onSuccess();
+                return false;
+            }
+
+            List<String> dict = read(response.getEntity());
+            // 词表或 Last-Modified / ETag 任意一个变化都要重写缓存，否则重启后的条件请求会带上过期的校验值
+            if (!dict.equals(words) || !Objects.equals(newLastModified, lastModified) || !Objects.equals(newETags, eTags)) {
+                writeCache(dict, newLastModified, newETags);
+            }
+            words = dict;
+            lastModified = newLastModified;
+            eTags = newETags;
+            onSuccess();
+            logger.info("load remote dictionary {} count:{}", address, dict.size());
+            return true;
+        } catch (Exception e) {
+            if (get.isAborted()) {
+                onFailure("not finished within " + deadlineMillis + "ms", null);
+            } else {
+                onFailure(e.getMessage(), e);
+            }
+            return false;
+        } finally {
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+        }
+    }
+
+    private static List<String> read(HttpEntity entity) throws IOException {
+        List<String> dict = new ArrayList<>();
+        if (entity == null) {
+            return dict;
+        }
+        String charset = "UTF-8";
+        // 获取编码，默认为utf-8
+        Header contentType = entity.getContentType();
+        if (contentType != null && contentType.getValue() != null) {
+            String typeValue = contentType.getValue();
+            if (typeValue.contains("charset=")) {
+                charset = typeValue.substring(typeValue.lastIndexOf("=") + 1);
+            }
+        }
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(entity.getContent(), charset))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                dict.add(line);
+            }
+        }
+        return dict;
+    }
+
+    /**
+     * 从本地缓存恢复上一次成功下载的词表和 Last-Modified / ETag
+     * 缓存文件格式：Last-Modified、ETag 两行头部，空行，之后每行一个词
+     *
+     * @return 是否从缓存中恢复了词表
+     */
+    public synchronized boolean loadCache() {
+        if (cacheFile == null || !Files.exists(cacheFile)) {
+            return false;
+        }
+        String cachedLastModified = null;
+        String cachedETags = null;
+        List<String> dict = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                if (line.startsWith(LAST_MODIFIED_HEADER)) {
+                    cachedLastModified = line.substring(LAST_MODIFIED_HEADER.length());
+                } else if (line.startsWith(ETAG_HEADER)) {
+                    cachedETags = line.substring(ETAG_HEADER.length());
+                }
+            }
+            while ((line = reader.readLine()) != null) {
+                dict.add(line);
+            }
+        } catch (IOException e) {
+            logger.error("remote_ext_dict " + address + " cache " + cacheFile + " load fail", e);
+            return false;
+        }
+        words = dict;
+        lastModified = cachedLastModified;
+        eTags = cachedETags;
+        logger.info("load remote dictionary {} from cache {} count:{}", address, cacheFile, dict.size());
+        return true;
+    }
+
+    /**
+     * 先写临时文件再原子重命名，进程在写入过程中退出也不会留下不完整的缓存
+     * 缓存只是重启加速，写入失败（包括没有文件权限）只记录日志，不影响本次下载结果
+     */
+    private void writeCache(List<String> dict, String newLastModified, String newETags) {
+        if (cacheFile == null) {
+            return;
+        }
+        Path tmp = null;
+        try {
+            Files.createDirectories(cacheFile.getParent());
+            tmp = Files.createTempFile(cacheFile.getParent(), cacheFile.getFileName().toString(), ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                if (newLastModified != null) {
+                    writer.write(LAST_MODIFIED_HEADER + newLastModified);
+                    writer.newLine();
+                }
+                if (newETags != null) {
+                    writer.write(ETAG_HEADER + newETags);
+                    writer.newLine();
+                }
+                writer.newLine();
+                for (String word : dict) {
+                    writer.write(word);
+                    writer.newLine();
+                }
+            }
+            try {
+                Files.move(tmp, cacheFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            tmp = null;
+        } catch (Exception e) {
+            logger.warn("remote_ext_dict " + address + " cache " + cacheFile + " write fail", e);
+        } finally {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (Exception ignored) {
+                    // 临时文件删除失败不影响词典使用
+                }
+            }
+        }
+    }
+
+    private void onSuccess() {
+        failures = 0;
+        nextAttemptMillis = 0;
+    }
+
+    /**
+     * 失败后按 30s、60s、120s ... 指数退避，最长 30 分钟，期间保留上一次成功下载的词表
+     */
+    private void onFailure(String reason, Exception e) {
+        int count = ++failures;
+        long backoff = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << Math.min(count - 1, 16));
+        nextAttemptMillis = System.currentTimeMillis() + backoff;
+        if (e == null) {
+            logger.warn("remote_ext_dict {} fail: {}, retry after {}ms", address, reason, backoff);
+        } else {
+            logger.error("remote_ext_dict " + address + " error, retry after " + backoff + "ms", e);
+        }
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public List<String> getWords() {
+        return words;
+    }
+
+    public int getFailures() {
+        return failures;
+    }
+}
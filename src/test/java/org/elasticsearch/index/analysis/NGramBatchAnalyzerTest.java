@@ -0,0 +1,88 @@
+package org.elasticsearch.index.analysis;
+
+import org.elasticsearch.action.admin.indices.analyze.AnalyzeAction;
+import org.elasticsearch.action.support.PlainActionFuture;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.common.util.concurrent.ThreadContext;
+import org.junit.Test;
+import org.ngram.config.Configuration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NGramBatchAnalyzerTest {
+
+    @Test
+    public void testResultsKeepInputOrder() {
+        List<String> texts = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            texts.add("文本" + i);
+        }
+
+        ExecutorService executor = newFixed(4, 16);
+        try {
+            NGramBatchAnalyzer analyzer = new NGramBatchAnalyzer(executor, 4, new Configuration(null, 1, 2));
+            PlainActionFuture<List<List<AnalyzeAction.AnalyzeToken>>> future = PlainActionFuture.newFuture();
+            analyzer.analyze(texts, future);
+            List<List<AnalyzeAction.AnalyzeToken>> results = future.actionGet();
+
+            assertEquals(texts.size(), results.size());
+            for (int i = 0; i < texts.size(); i++) {
+                List<AnalyzeAction.AnalyzeToken> tokens = results.get(i);
+                String text = texts.get(i);
+                // 不输出以最后一个字符结尾的 gram
+                assertEquals(text.length() * 2 - 3, tokens.size());
+                assertEquals(text.substring(0, 1), tokens.get(0).getTerm());
+                assertEquals(text.substring(text.length() - 2, text.length() - 1), tokens.get(tokens.size() - 1).getTerm());
+                assertEquals(tokens.size() - 1, tokens.get(tokens.size() - 1).getPosition());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testRejectedWhenQueueIsFull() throws Exception {
+        ExecutorService executor = newFixed(1, 1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        try {
+            // 占住唯一的线程和队列
+            executor.execute(() -> {
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            executor.execute(() -> { });
+
+            NGramBatchAnalyzer analyzer = new NGramBatchAnalyzer(executor, 1, new Configuration(null, 1, 2));
+            PlainActionFuture<List<List<AnalyzeAction.AnalyzeToken>>> future = PlainActionFuture.newFuture();
+            analyzer.analyze(Arrays.asList("东方", "明珠"), future);
+            try {
+                future.get();
+                fail("expected rejection");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof EsRejectedExecutionException);
+            }
+        } finally {
+            blocked.countDown();
+            executor.shutdown();
+        }
+    }
+
+    private static ExecutorService newFixed(int size, int queueSize) {
+        return EsExecutors.newFixed("n-gram-batch-analyze-test", size, queueSize,
+                EsExecutors.daemonThreadFactory("n-gram-batch-analyze-test"), new ThreadContext(Settings.EMPTY));
+    }
+}
@@ -0,0 +1,100 @@
+package org.elasticsearch.index.analysis;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Test;
+import org.ngram.config.Configuration;
+import org.ngram.core.TermEncodingEnum;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NGramTokenFilterTest {
+
+    @Test
+    public void testFilterAfterWhitespaceTokenizer() throws IOException {
+        Tokenizer tokenizer = new WhitespaceTokenizer();
+        tokenizer.setReader(new StringReader("abc 东方"));
+        TokenStream tokenStream = new NGramTokenFilter(tokenizer, filterConfiguration(1, 2));
+
+        CharTermAttribute termAtt = tokenStream.addAttribute(CharTermAttribute.class);
+        OffsetAttribute offsetAttribute = tokenStream.addAttribute(OffsetAttribute.class);
+        PositionIncrementAttribute posIncAttribute = tokenStream.addAttribute(PositionIncrementAttribute.class);
+
+        List<String> tokens = new ArrayList<>();
+        tokenStream.reset();
+        while (tokenStream.incrementToken()) {
+            tokens.add(termAtt.toString() + " " + offsetAttribute.startOffset() + " " +
+                    offsetAttribute.endOffset() + " " + posIncAttribute.getPositionIncrement());
+        }
+        tokenStream.end();
+        tokenStream.close();
+
+        List<String> expected = new ArrayList<>();
+        expected.add("a 0 1 1");
+        expected.add("ab 0 2 0");
+        expected.add("b 1 2 0");
+        expected.add("bc 1 3 0");
+        expected.add("c 2 3 0");
+        expected.add("东 4 5 1");
+        expected.add("东方 4 6 0");
+        expected.add("方 5 6 0");
+        assertEquals(expected, tokens);
+    }
+
+    @Test
+    public void testShortTokenKeepsPosition() throws IOException {
+        Tokenizer tokenizer = new WhitespaceTokenizer();
+        tokenizer.setReader(new StringReader("东方 x 明珠 y"));
+        TokenStream tokenStream = new NGramTokenFilter(tokenizer, filterConfiguration(2, 2));
+
+        CharTermAttribute termAtt = tokenStream.addAttribute(CharTermAttribute.class);
+        PositionIncrementAttribute posIncAttribute = tokenStream.addAttribute(PositionIncrementAttribute.class);
+
+        List<String> tokens = new ArrayList<>();
+        tokenStream.reset();
+        while (tokenStream.incrementToken()) {
+            tokens.add(termAtt.toString() + " " + posIncAttribute.getPositionIncrement());
+        }
+        tokenStream.end();
+        // 末尾被跳过的 y 计入 end() 的位置增量
+        assertEquals(1, posIncAttribute.getPositionIncrement());
+        tokenStream.close();
+
+        List<String> expected = new ArrayList<>();
+        expected.add("东方 1");
+        // x 短于 min_gram 不产出 gram，但仍然占用一个位置
+        expected.add("明珠 2");
+        assertEquals(expected, tokens);
+    }
+
+    @Test
+    public void testRejectPackedTermEncoding() {
+        try {
+            NGramTokenFilterFactory.buildConfiguration(null, Settings.builder().put("term_encoding", "packed").build(), 1);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("[term_encoding]"));
+        }
+        assertEquals(TermEncodingEnum.UTF8,
+                NGramTokenFilterFactory.buildConfiguration(null, Settings.builder().put("term_encoding", "utf8").build(), 1).getTermEncoding());
+    }
+
+    /**
+     * 与 n_gram filter 的默认配置一致，输出以最后一个字符结尾的 gram
+     */
+    private static Configuration filterConfiguration(int minGram, int maxGram) {
+        return Configuration.builder(null).gram(minGram, maxGram).trailingGrams(true).build();
+    }
+}
@@ -0,0 +1,76 @@
+package org.elasticsearch.index.analysis;
+
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.TermToBytesRefAttribute;
+import org.apache.lucene.util.BytesRef;
+import org.junit.Test;
+import org.ngram.config.Configuration;
+import org.ngram.core.TermEncodingEnum;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PackedTermAttributeImplTest {
+
+    @Test
+    public void testPackedTokenizerBytes() throws IOException {
+        Configuration configuration = Configuration.builder(null).gram(2, 2).termEncoding(TermEncodingEnum.PACKED).build();
+        NGramTokenizer tokenizer = new NGramTokenizer(configuration);
+        tokenizer.setReader(new StringReader("东方明"));
+
+        CharTermAttribute termAtt = tokenizer.getAttribute(CharTermAttribute.class);
+        TermToBytesRefAttribute bytesAtt = tokenizer.getAttribute(TermToBytesRefAttribute.class);
+        assertTrue(termAtt instanceof PackedTermAttributeImpl);
+
+        List<String> terms = new ArrayList<>();
+        tokenizer.reset();
+        while (tokenizer.incrementToken()) {
+            BytesRef bytes = bytesAtt.getBytesRef();
+            assertEquals(4, bytes.length);
+            assertEquals(termAtt.charAt(0), (char) (((bytes.bytes[bytes.offset] & 0xFF) << 8) | (bytes.bytes[bytes.offset + 1] & 0xFF)));
+            terms.add(termAtt.toString());
+        }
+        tokenizer.end();
+        tokenizer.close();
+
+        List<String> expected = new ArrayList<>();
+        expected.add("东方");
+        assertEquals(expected, terms);
+    }
+
+    @Test
+    public void testPackedKeepsOrder() {
+        PackedTermAttributeImpl a = new PackedTermAttributeImpl();
+        a.append("a中");
+        BytesRef first = BytesRef.deepCopyOf(a.getBytesRef());
+        a.setEmpty().append("b");
+        assertTrue(first.compareTo(a.getBytesRef()) < 0);
+        assertEquals(2, a.getBytesRef().length);
+    }
+
+    @Test
+    public void testCloneDoesNotShareBytes() {
+        PackedTermAttributeImpl a = new PackedTermAttributeImpl();
+        a.append("东方");
+        a.getBytesRef();
+        PackedTermAttributeImpl clone = a.clone();
+        PackedTermAttributeImpl copy = new PackedTermAttributeImpl();
+        a.copyTo(copy);
+        BytesRef cloned = clone.getBytesRef();
+        BytesRef copied = copy.getBytesRef();
+        BytesRef expected = BytesRef.deepCopyOf(cloned);
+
+        // 原属性重新编码不影响副本已经返回的字节
+        a.setEmpty().append("明珠");
+        a.getBytesRef();
+        assertEquals(expected, cloned);
+        assertEquals(expected, copied);
+        assertEquals("东方", clone.toString());
+        assertEquals("东方", copy.toString());
+    }
+}
@@ -0,0 +1,74 @@
+package org.ngram.config;
+
+import org.elasticsearch.Version;
+import org.elasticsearch.cluster.metadata.IndexMetadata;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.IndexSettings;
+import org.elasticsearch.index.analysis.NGramTokenizerFactory;
+import org.junit.Test;
+import org.ngram.core.TermEncodingEnum;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConfigurationTest {
+
+    @Test
+    public void testBuildFromSettings() {
+        Settings settings = Settings.builder()
+                .put("min_gram", 2)
+                .put("max_gram", 3)
+                .put("prune_stopwords", true)
+                .put("term_encoding", "packed")
+                .build();
+        Configuration configuration = NGramTokenizerFactory.buildConfiguration(null, settings);
+        assertEquals(2, configuration.getMinGram());
+        assertEquals(3, configuration.getMaxGram());
+        assertTrue(configuration.isPruning());
+        assertTrue(configuration.isDictionaryRequired());
+        assertFalse(configuration.isUseDictionary());
+        assertEquals(TermEncodingEnum.PACKED, configuration.getTermEncoding());
+    }
+
+    @Test
+    public void testRejectInvalidGram() {
+        assertInvalid(Settings.builder().put("min_gram", 3).put("max_gram", 2).build());
+        assertInvalid(Settings.builder().put("min_gram", 0).put("max_gram", 2).build());
+        assertInvalid(Settings.builder().put("max_gram_frequency", -1).build());
+        assertInvalid(Settings.builder().put("term_encoding", "utf16").build());
+    }
+
+    @Test
+    public void testGramDiffAboveMaxNgramDiffOnlyWarns() {
+        // 已有索引常用的 1~3 gram，差值 2 超过 index.max_ngram_diff 的默认值 1，仍然可以创建
+        Settings settings = Settings.builder().put("min_gram", 1).put("max_gram", 3).build();
+        Configuration configuration = NGramTokenizerFactory.buildConfiguration(null, settings);
+        assertEquals(1, configuration.getMinGram());
+        assertEquals(3, configuration.getMaxGram());
+
+        assertNotNull(new NGramTokenizerFactory(indexSettings(1), null, settings, "n_gram").create());
+        assertNotNull(new NGramTokenizerFactory(indexSettings(2), null, settings, "n_gram").create());
+    }
+
+    private static IndexSettings indexSettings(int maxNgramDiff) {
+        Settings settings = Settings.builder()
+                .put(IndexMetadata.SETTING_VERSION_CREATED, Version.CURRENT)
+                .put(IndexMetadata.SETTING_NUMBER_OF_SHARDS, 1)
+                .put(IndexMetadata.SETTING_NUMBER_OF_REPLICAS, 0)
+                .put(IndexSettings.MAX_NGRAM_DIFF_SETTING.getKey(), maxNgramDiff)
+                .build();
+        return new IndexSettings(IndexMetadata.builder("test").settings(settings).build(), Settings.EMPTY);
+    }
+
+    private static void assertInvalid(Settings settings) {
+        try {
+            NGramTokenizerFactory.buildConfiguration(null, settings);
+            fail("expected IllegalArgumentException for " + settings);
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package org.ngram.core;
+
+import org.junit.Test;
+import org.ngram.config.Configuration;
+
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CharNormalizerTest {
+
+    @Test
+    public void testNormalize() {
+        CharNormalizer normalizer = CharNormalizer.of(true, true, true);
+        char[] text = "ＡＢｃ１　東方Ｘ".toCharArray();
+        normalizer.normalize(text, 0, text.length);
+        assertEquals("abc1 东方x", new String(text));
+    }
+
+    @Test
+    public void testTraditionalToSimplified() {
+        CharNormalizer normalizer = CharNormalizer.of(false, false, true);
+        char[] text = "我愛你，這是什麼？後來們說鐵龍鳥".toCharArray();
+        normalizer.normalize(text, 0, text.length);
+        assertEquals("我爱你，这是什么？后来们说铁龙鸟", new String(text));
+    }
+
+    @Test
+    public void testSegmenterNormalizesWhileReading() {
+        NGramSegmenter segmenter = new NGramSegmenter(null, new Configuration(null, 2, 2, CharNormalizer.of(true, true, true)));
+        segmenter.reset(new StringReader("國Ａ東"));
+
+        Term term = segmenter.next();
+        assertEquals("国a", term.getText());
+        assertEquals(0, term.getBegin());
+        assertEquals(2, term.getEnd());
+        assertNull(segmenter.next());
+    }
+}
@@ -0,0 +1,75 @@
+package org.ngram.core;
+
+import org.junit.Test;
+import org.ngram.config.Configuration;
+import org.ngram.dictionary.DictionarySnapshot;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class NGramSegmenterTest {
+
+    @Test
+    public void testDictionaryWords() {
+        DictionarySnapshot snapshot = DictionarySnapshot.build(Arrays.asList("\uFEFF一一列举", "東方明珠", "方明"), 1);
+        NGramSegmenter segmenter = new NGramSegmenter(null,
+                new Configuration(null, 2, 2, CharNormalizer.of(false, false, true), () -> snapshot));
+        segmenter.reset(new StringReader("一一列举东方明珠"));
+
+        List<String> words = new ArrayList<>();
+        Term term;
+        while ((term = segmenter.next()) != null) {
+            if (term.getType() == TermTypeEnum.CN_WORD) {
+                words.add(term.getText() + " " + term.getBegin() + " " + term.getEnd());
+            }
+        }
+        // 长度不超过 max_gram 的词由 gram 覆盖，词典词按归一化后的文本匹配
+        assertEquals(Arrays.asList("一一列举 0 4", "东方明珠 4 8"), words);
+    }
+
+    @Test
+    public void testPruneStopwordsAndFrequentGrams() {
+        DictionarySnapshot snapshot = DictionarySnapshot.build(Arrays.asList("的确\t100", "东方\t5000", "明珠"),
+                Arrays.asList("的"), 1);
+        Configuration configuration = Configuration.builder(null)
+                .gram(1, 2)
+                .dictionary(() -> snapshot)
+                .pruneStopwords(true)
+                .maxGramFrequency(1000)
+                .build();
+        NGramSegmenter segmenter = new NGramSegmenter(null, configuration);
+        segmenter.reset(new StringReader("东方的确"));
+
+        List<String> grams = new ArrayList<>();
+        Term term;
+        while ((term = segmenter.next()) != null) {
+            grams.add(term.getText());
+        }
+        assertEquals(Arrays.asList("东", "方", "方的"), grams);
+        assertEquals(1, segmenter.getPrunedStopwordTerms());
+        assertEquals(1, segmenter.getPrunedFrequentTerms());
+    }
+
+    @Test
+    public void testTrailingGrams() {
+        // 默认与已有索引保持一致，不输出以最后一个字符结尾的 gram
+        assertEquals(Arrays.asList("a", "ab", "b"), grams(Configuration.builder(null).gram(1, 2).build(), "abc"));
+        assertEquals(Arrays.asList("a", "ab", "b", "bc", "c"),
+                grams(Configuration.builder(null).gram(1, 2).trailingGrams(true).build(), "abc"));
+    }
+
+    private static List<String> grams(Configuration configuration, String text) {
+        NGramSegmenter segmenter = new NGramSegmenter(null, configuration);
+        segmenter.reset(new StringReader(text));
+        List<String> grams = new ArrayList<>();
+        Term term;
+        while ((term = segmenter.next()) != null) {
+            grams.add(term.getText());
+        }
+        return grams;
+    }
+}
@@ -0,0 +1,131 @@
+package org.ngram.dictionary;
+
+import com.sun.net.httpserver.HttpServer;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.plugin.analysis.ngram.AnalysisNGramPlugin;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DictionaryManagerTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private HttpServer server;
+
+    private ExecutorService serverPool;
+
+    private ScheduledThreadPoolExecutor dictionaryPool;
+
+    private ExecutorService fetchPool;
+
+    /**
+     * 打开前远程词典请求一直挂起，模拟响应很慢的远程服务
+     */
+    private final CountDownLatch remoteAvailable = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/remote.dic", exchange -> {
+            try {
+                remoteAvailable.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = "远程词\n".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("ETag", "\"v1\"");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        serverPool = Executors.newFixedThreadPool(2);
+        server.setExecutor(serverPool);
+        server.start();
+        dictionaryPool = new ScheduledThreadPoolExecutor(2);
+        fetchPool = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        remoteAvailable.countDown();
+        server.stop(0);
+        serverPool.shutdownNow();
+        dictionaryPool.shutdownNow();
+        fetchPool.shutdownNow();
+    }
+
+    @Test
+    public void testPublishLocalAndCacheBeforeRemoteRefresh() throws Exception {
+        DictionaryManager manager = new DictionaryManager();
+        manager.initialize(environment(), dictionaryPool, fetchPool);
+
+        // 远程服务还没有响应，本地词典与远程词典缓存已经发布，首次加载即视为完成
+        assertTrue(manager.awaitReady(TimeValue.timeValueSeconds(10)));
+        assertTrue(contains(manager.getSnapshot(), "本地词"));
+        assertTrue(contains(manager.getSnapshot(), "缓存词"));
+        assertFalse(contains(manager.getSnapshot(), "远程词"));
+
+        remoteAvailable.countDown();
+        assertTrue(awaitWord(manager, "远程词"));
+        assertTrue(contains(manager.getSnapshot(), "本地词"));
+    }
+
+    private Environment environment() throws Exception {
+        Path home = temporaryFolder.newFolder("n-gram-home").toPath();
+        Path configDir = home.resolve("config");
+        Path pluginConfigDir = Files.createDirectories(configDir.resolve(AnalysisNGramPlugin.PLUGIN_NAME));
+        String address = "http://127.0.0.1:" + server.getAddress().getPort() + "/remote.dic";
+        String config = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<!DOCTYPE properties SYSTEM \"http://java.sun.com/dtd/properties.dtd\">\n"
+                + "<properties>\n"
+                + "\t<entry key=\"ext_dict\">local.dic</entry>\n"
+                + "\t<entry key=\"remote_ext_dict\">" + address + "</entry>\n"
+                + "</properties>\n";
+        Files.write(pluginConfigDir.resolve("analyzer.cfg.xml"), config.getBytes(StandardCharsets.UTF_8));
+        Files.write(pluginConfigDir.resolve("local.dic"), "本地词\n".getBytes(StandardCharsets.UTF_8));
+
+        Environment environment = new Environment(
+                Settings.builder().put(Environment.PATH_HOME_SETTING.getKey(), home.toString()).build(), configDir);
+        Path cacheDir = Files.createDirectories(environment.dataFiles()[0].resolve(AnalysisNGramPlugin.PLUGIN_NAME).resolve("remote_cache"));
+        Files.write(cacheDir.resolve(DictionaryMonitorThread.cacheFileName(address)),
+                "ETag: \"v0\"\n\n缓存词\n".getBytes(StandardCharsets.UTF_8));
+        return environment;
+    }
+
+    private static boolean awaitWord(DictionaryManager manager, String word) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (System.nanoTime() < deadline) {
+            if (contains(manager.getSnapshot(), word)) {
+                return true;
+            }
+            Thread.sleep(10);
+        }
+        return false;
+    }
+
+    private static boolean contains(DictionarySnapshot snapshot, String word) {
+        char[] chars = word.toCharArray();
+        return snapshot.contains(chars, 0, chars.length);
+    }
+}
@@ -0,0 +1,233 @@
+package org.ngram.dictionary;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DictionaryMonitorThreadTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private HttpServer server;
+
+    private ExecutorService serverExecutor;
+
+    private ExecutorService executor;
+
+    private ScheduledExecutorService scheduler;
+
+    private final BlockingQueue<List<RemoteDictionarySource>> published = new LinkedBlockingQueue<>();
+
+    private final CountDownLatch slowAborted = new CountDownLatch(1);
+
+    private final AtomicReference<String> etag = new AtomicReference<>("\"v1\"");
+
+    private final AtomicInteger downloads = new AtomicInteger();
+
+    @Before
+    public void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/good.dic", exchange -> {
+            if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            downloads.incrementAndGet();
+            byte[] body = "东方明珠\n黄浦江\n".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("ETag", "\"v1\"");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.createContext("/slow.dic", exchange -> {
+            // 持续缓慢地返回数据，每次等待都不超过读取超时，直到客户端断开连接
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                long end = System.currentTimeMillis() + 30_000;
+                while (System.currentTimeMillis() < end) {
+                    out.write("慢\n".getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                    Thread.sleep(100);
+                }
+            } catch (IOException e) {
+                slowAborted.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        server.createContext("/versioned.dic", exchange -> {
+            // 内容不变，只有 ETag 变化
+            byte[] body = "东方明珠\n".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("ETag", etag.get());
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.createContext("/bad.dic", exchange -> {
+            exchange.sendResponseHeaders(500, -1);
+            exchange.close();
+        });
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.start();
+        executor = Executors.newFixedThreadPool(2);
+        scheduler = Executors.newScheduledThreadPool(1);
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+        executor.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void testBadSourceBacksOffWithoutBlockingOthers() {
+        String base = "http://127.0.0.1:" + server.getAddress().getPort();
+        DictionaryMonitorThread monitor = new DictionaryMonitorThread(Arrays.asList(base + "/good.dic", base + "/bad.dic"), executor, scheduler,
+                null, published::add);
+        RemoteDictionarySource good = monitor.getSources().get(0);
+        RemoteDictionarySource bad = monitor.getSources().get(1);
+
+        assertTrue(monitor.refresh(false).join());
+        assertEquals(Arrays.asList("东方明珠", "黄浦江"), good.getWords());
+        assertNull(bad.getWords());
+        assertEquals(1, bad.getFailures());
+        assertFalse(bad.isDue(System.currentTimeMillis()));
+
+        // 第二次检查走条件请求，好的源返回 304，坏的源处于退避期不发请求
+        assertFalse(monitor.refresh(false).join());
+        assertEquals(1, downloads.get());
+        assertEquals(1, bad.getFailures());
+        assertEquals(Arrays.asList("东方明珠", "黄浦江"), good.getWords());
+    }
+
+    @Test
+    public void testWarmRestartFromCache() throws Exception {
+        String address = "http://127.0.0.1:" + server.getAddress().getPort() + "/good.dic";
+        Path cacheDir = temporaryFolder.getRoot().toPath().resolve("remote_cache");
+
+        DictionaryMonitorThread monitor = new DictionaryMonitorThread(Arrays.asList(address), executor, scheduler, cacheDir, published::add);
+        assertTrue(monitor.refresh(false).join());
+        assertTrue(Files.exists(cacheDir.resolve(DictionaryMonitorThread.cacheFileName(address))));
+
+        // 重启后从缓存恢复，条件请求返回 304，不重新下载
+        DictionaryMonitorThread restarted = new DictionaryMonitorThread(Arrays.asList(address), executor, scheduler, cacheDir, published::add);
+        assertEquals(1, restarted.loadCache());
+        assertFalse(restarted.refresh(false).join());
+        assertEquals(1, downloads.get());
+        assertEquals(Arrays.asList("东方明珠", "黄浦江"), restarted.getSources().get(0).getWords());
+
+        // 远程服务不可用时继续使用缓存的词表
+        server.stop(0);
+        DictionaryMonitorThread offline = new DictionaryMonitorThread(Arrays.asList(address), executor, scheduler, cacheDir, published::add);
+        assertEquals(1, offline.loadCache());
+        assertFalse(offline.refresh(true).join());
+        assertEquals(1, offline.getSources().get(0).getFailures());
+        assertEquals(Arrays.asList("东方明珠", "黄浦江"), offline.getSources().get(0).getWords());
+    }
+
+    @Test
+    public void testCacheRewrittenWhenValidatorsChange() throws Exception {
+        String address = "http://127.0.0.1:" + server.getAddress().getPort() + "/versioned.dic";
+        Path cacheDir = temporaryFolder.getRoot().toPath().resolve("remote_cache");
+        Path cacheFile = cacheDir.resolve(DictionaryMonitorThread.cacheFileName(address));
+
+        DictionaryMonitorThread monitor = new DictionaryMonitorThread(Arrays.asList(address), executor, scheduler, cacheDir, published::add);
+        assertTrue(monitor.refresh(false).join());
+        assertTrue(new String(Files.readAllBytes(cacheFile), StandardCharsets.UTF_8).contains("\"v1\""));
+
+        // 词表没有变化，ETag 变化后缓存中的校验值也要更新
+        etag.set("\"v2\"");
+        assertTrue(monitor.refresh(false).join());
+        String cached = new String(Files.readAllBytes(cacheFile), StandardCharsets.UTF_8);
+        assertTrue(cached.contains("\"v2\""));
+        assertFalse(cached.contains("\"v1\""));
+    }
+
+    @Test
+    public void testCacheWriteFailureDoesNotFailRefresh() throws Exception {
+        String address = "http://127.0.0.1:" + server.getAddress().getPort() + "/good.dic";
+        // 缓存目录位置已经被普通文件占用，无法创建
+        Path cacheDir = temporaryFolder.newFile("remote_cache").toPath();
+
+        DictionaryMonitorThread monitor = new DictionaryMonitorThread(Arrays.asList(address), executor, scheduler, cacheDir, published::add);
+        assertTrue(monitor.refresh(false).join());
+        RemoteDictionarySource source = monitor.getSources().get(0);
+        assertEquals(Arrays.asList("东方明珠", "黄浦江"), source.getWords());
+        assertEquals(0, source.getFailures());
+    }
+
+    @Test
+    public void testUpdatesWithinDelayArePublishedOnce() throws Exception {
+        String base = "http://127.0.0.1:" + server.getAddress().getPort();
+        DictionaryMonitorThread monitor = new DictionaryMonitorThread(Arrays.asList(base + "/good.dic", base + "/versioned.dic"),
+                executor, scheduler, null, published::add, 1000, 500);
+
+        // 两个源几乎同时更新，合并为一次发布
+        monitor.run();
+        List<RemoteDictionarySource> updated = published.poll(10, TimeUnit.SECONDS);
+        assertEquals(new HashSet<>(monitor.getSources()), new HashSet<>(updated));
+        assertNull(published.poll(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testSlowSourceDoesNotBlockOthers() throws Exception {
+        String base = "http://127.0.0.1:" + server.getAddress().getPort();
+        DictionaryMonitorThread monitor = new DictionaryMonitorThread(Arrays.asList(base + "/slow.dic", base + "/good.dic"),
+                executor, scheduler, null, published::add, 1000, 100);
+        RemoteDictionarySource slow = monitor.getSources().get(0);
+        RemoteDictionarySource good = monitor.getSources().get(1);
+
+        // 好的源不等待慢的源，合并窗口结束后就发布
+        monitor.run();
+        assertEquals(Collections.singletonList(good), published.poll(10, TimeUnit.SECONDS));
+
+        // 慢的源还在下载中，下一个周期跳过它，好的源照常检查
+        monitor.run();
+        assertTrue(slow.isDue(System.currentTimeMillis()));
+        assertTrue(slowAborted.await(10, TimeUnit.SECONDS));
+
+        // 到达截止时间后中断连接并进入退避
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertNull(slow.getWords());
+        assertEquals(1, slow.getFailures());
+        // 第二个周期好的源返回 304，没有再次发布
+        assertEquals(1, downloads.get());
+        assertTrue(published.isEmpty());
+    }
+}
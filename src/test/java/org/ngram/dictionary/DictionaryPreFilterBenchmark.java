@@ -0,0 +1,86 @@
+package org.ngram.dictionary;
+
+import org.ngram.config.Configuration;
+import org.ngram.core.CharNormalizer;
+import org.ngram.core.NGramSegmenter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 词典前置过滤器基准测试
+ * 用 config/main.dic 构造词典，语料为词典词与随机常用汉字混合，
+ * 分别统计 不查词典 / 查词典不带前置过滤 / 查词典带前置过滤 三种情况下每个字符的平均耗时
+ * <p>
+ * 运行方式: 传入语料文件路径则使用该语料，否则使用生成的语料
+ * java -cp ... org.ngram.dictionary.DictionaryPreFilterBenchmark [corpus.txt]
+ */
+public class DictionaryPreFilterBenchmark {
+
+    private static final int CORPUS_SIZE = 1 << 20;
+
+    private static final int DOCUMENT_SIZE = 512;
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        List<String> dict = Files.readAllLines(Paths.get("config", "main.dic"), StandardCharsets.UTF_8);
+        DictionarySnapshot withPreFilter = DictionarySnapshot.build(dict, 1);
+        DictionarySnapshot withoutPreFilter = withPreFilter.withoutPreFilter();
+
+        char[] corpus = args.length > 0 ? readCorpus(Paths.get(args[0])) : generateCorpus(dict);
+        System.out.println("dictionary words: " + withPreFilter.size() + ", corpus chars: " + corpus.length);
+
+        NGramSegmenter plain = new NGramSegmenter(null, new Configuration(null, 1, 2));
+        NGramSegmenter noFilter = new NGramSegmenter(null,
+                new Configuration(null, 1, 2, CharNormalizer.none(), () -> withoutPreFilter));
+        NGramSegmenter filtered = new NGramSegmenter(null,
+                new Configuration(null, 1, 2, CharNormalizer.none(), () -> withPreFilter));
+
+        for (int round = 0; round < ROUNDS; round++) {
+            System.out.println("round " + round);
+            report("  no dictionary         ", plain, corpus);
+            report("  dictionary            ", noFilter, corpus);
+            report("  dictionary + prefilter", filtered, corpus);
+        }
+    }
+
+    private static void report(String name, NGramSegmenter segmenter, char[] corpus) {
+        long tokens = 0;
+        long start = System.nanoTime();
+        for (int offset = 0; offset < corpus.length; offset += DOCUMENT_SIZE) {
+            segmenter.reset(corpus, offset, Math.min(DOCUMENT_SIZE, corpus.length - offset));
+            while (segmenter.next() != null) {
+                tokens++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%s %6.1f ns/char, %d tokens%n", name, (double) elapsed / corpus.length, tokens);
+    }
+
+    private static char[] readCorpus(Path path) throws IOException {
+        return new String(Files.readAllBytes(path), StandardCharsets.UTF_8).toCharArray();
+    }
+
+    /**
+     * 约三成字符来自词典词，其余为随机常用汉字
+     */
+    private static char[] generateCorpus(List<String> dict) {
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder(CORPUS_SIZE + 64);
+        while (text.length() < CORPUS_SIZE) {
+            if (random.nextInt(10) < 3) {
+                text.append(dict.get(random.nextInt(dict.size())).trim());
+            } else {
+                text.append((char) (0x4E00 + random.nextInt(0x9FA5 - 0x4E00)));
+            }
+        }
+        text.setLength(CORPUS_SIZE);
+        return text.toString().toCharArray();
+    }
+}
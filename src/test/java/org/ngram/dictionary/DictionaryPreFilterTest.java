@@ -0,0 +1,49 @@
+package org.ngram.dictionary;
+
+import org.junit.Test;
+import org.ngram.config.Configuration;
+import org.ngram.core.CharNormalizer;
+import org.ngram.core.NGramSegmenter;
+import org.ngram.core.Term;
+import org.ngram.core.TermTypeEnum;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DictionaryPreFilterTest {
+
+    @Test
+    public void testLongWordsAreNotFiltered() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            builder.append((char) (0x4E00 + i));
+        }
+        char[] word = builder.toString().toCharArray();
+
+        DictionaryPreFilter preFilter = new DictionaryPreFilter();
+        preFilter.add(word);
+        assertEquals(200, preFilter.maxWordLength(word, 0));
+        assertTrue(preFilter.mightContain(word, 0, word.length));
+        assertFalse(preFilter.mightContain(word, 1, 2));
+
+        DictionarySnapshot snapshot = DictionarySnapshot.build(Collections.singletonList(builder.toString()), 1);
+        NGramSegmenter segmenter = new NGramSegmenter(null,
+                new Configuration(null, 1, 2, CharNormalizer.none(), () -> snapshot));
+        segmenter.reset(new StringReader("东方" + builder + "明珠"));
+
+        List<String> words = new ArrayList<>();
+        Term term;
+        while ((term = segmenter.next()) != null) {
+            if (term.getType() == TermTypeEnum.CN_WORD) {
+                words.add(term.getBegin() + " " + term.getEnd());
+            }
+        }
+        assertEquals(Collections.singletonList("2 202"), words);
+    }
+}
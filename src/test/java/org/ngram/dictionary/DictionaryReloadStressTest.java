@@ -0,0 +1,483 @@
+package org.ngram.dictionary;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.index.analysis.NGramTokenizer;
+import org.elasticsearch.plugin.analysis.ngram.AnalysisNGramPlugin;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.ngram.config.Configuration;
+import org.ngram.core.TermTypeEnum;
+
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 词典重新加载时的并发压力测试
+ * 用内嵌 http 服务充当 remote_ext_dict，N 个线程持续用 NGramTokenizer 分词，同时不断切换不同规模的远程词典并重新加载，
+ * 统计吞吐、单文档分词耗时的 p50 / p99 / p999，以及重新加载期间与两次加载之间分词线程的内存分配速率、每次加载本身的内存分配
+ * <p>
+ * 测试使用独立的 {@link DictionaryManager} 实例，分词器通过配置中的词典快照来源注入，不影响插件使用的全局词典
+ * <p>
+ * 每个版本的词典都带有一个只属于该版本的标记词，每篇文档中包含所有版本的标记词，
+ * 一篇文档必须恰好命中一个标记词，即整篇文档只使用了一个词典版本；同一线程看到的版本不能回退
+ * <p>
+ * 不在默认的测试中运行，需要开启 stress profile，可以放大参数:
+ * mvn test -Pstress -Dtest=DictionaryReloadStressTest -Dstress.threads=8 -Dstress.reloads=50 -Dstress.dictionary.size=200000
+ */
+public class DictionaryReloadStressTest {
+
+    private static final int THREADS = Integer.getInteger("stress.threads", 4);
+
+    private static final int RELOADS = Integer.getInteger("stress.reloads", 12);
+
+    /**
+     * 最大词典规模，各版本在 1/50、1/5、1 倍之间轮换
+     */
+    private static final int DICTIONARY_SIZE = Integer.getInteger("stress.dictionary.size", 50000);
+
+    private static final long RELOAD_INTERVAL_MILLIS = Long.getLong("stress.reload.interval", 20L);
+
+    private static final int DOCUMENT_SIZE = 512;
+
+    private static final int DOCUMENTS_PER_THREAD = 64;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private HttpServer server;
+
+    private ExecutorService serverPool;
+
+    private ScheduledThreadPoolExecutor dictionaryPool;
+
+    private ExecutorService fetchPool;
+
+    /**
+     * 下载线程，远程词典的下载与解析在这些线程中完成，计入重新加载的内存分配
+     */
+    private final List<Thread> fetchThreads = new CopyOnWriteArrayList<>();
+
+    /**
+     * 当前远程词典版本与内容
+     */
+    private final AtomicReference<RemoteVersion> remote = new AtomicReference<>();
+
+    @Before
+    public void setUp() throws Exception {
+        remote.set(new RemoteVersion(0, dictionary(0)));
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/remote.dic", exchange -> {
+            RemoteVersion current = remote.get();
+            if (current.eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            exchange.getResponseHeaders().set("ETag", current.eTag);
+            exchange.sendResponseHeaders(200, current.body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(current.body);
+            }
+        });
+        serverPool = Executors.newFixedThreadPool(2);
+        server.setExecutor(serverPool);
+        server.start();
+        dictionaryPool = new ScheduledThreadPoolExecutor(1);
+        fetchPool = Executors.newFixedThreadPool(2, r -> {
+            Thread thread = new Thread(r, "n-gram-stress-fetch");
+            fetchThreads.add(thread);
+            return thread;
+        });
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        serverPool.shutdownNow();
+        dictionaryPool.shutdownNow();
+        fetchPool.shutdownNow();
+    }
+
+    @Test
+    public void testReloadUnderLoad() throws Exception {
+        DictionaryManager manager = new DictionaryManager();
+        manager.initialize(environment(), dictionaryPool, fetchPool);
+        assertTrue(manager.awaitReady(TimeValue.timeValueSeconds(30)));
+        // 首次发布不等待远程下载，等远程词典的第一个版本发布后再开始
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!containsMarker(manager.getSnapshot(), 0) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(containsMarker(manager.getSnapshot(), 0));
+
+        Configuration configuration = Configuration.builder(null)
+                .gram(1, 2)
+                .dictionary(manager::getSnapshot)
+                .useDictionary(true)
+                .build();
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Worker> workers = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            Worker worker = new Worker(configuration, new Random(i), start);
+            workers.add(worker);
+            worker.start();
+        }
+
+        long[] workerIds = new long[workers.size()];
+        for (int i = 0; i < workerIds.length; i++) {
+            workerIds[i] = workers.get(i).getId();
+        }
+        Allocation allocation = new Allocation();
+
+        long begin = System.nanoTime();
+        start.countDown();
+        long[] reloadNanos = new long[RELOADS];
+        for (int v = 1; v <= RELOADS; v++) {
+            remote.set(new RemoteVersion(v, dictionary(v)));
+            // 只统计重新加载期间的分配，与两次加载之间的分配分开
+            long[] workersBefore = allocation.of(workerIds);
+            long reloadBefore = allocation.ofReload();
+            long t0 = System.nanoTime();
+            manager.reloadRemoteDictionary();
+            reloadNanos[v - 1] = System.nanoTime() - t0;
+            allocation.addReload(workerIds, workersBefore, reloadBefore, reloadNanos[v - 1]);
+            assertTrue("snapshot should contain marker of version " + v, containsMarker(manager.getSnapshot(), v));
+
+            workersBefore = allocation.of(workerIds);
+            long t1 = System.nanoTime();
+            Thread.sleep(RELOAD_INTERVAL_MILLIS);
+            allocation.addIdle(workerIds, workersBefore, System.nanoTime() - t1);
+        }
+        for (Worker worker : workers) {
+            worker.running = false;
+        }
+        for (Worker worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        report(workers, reloadNanos, elapsed, allocation);
+
+        Set<Integer> versions = new HashSet<>();
+        for (Worker worker : workers) {
+            assertNull(worker.error, worker.error);
+            versions.addAll(worker.versions);
+        }
+        // 分词过程中确实发生了词典切换
+        assertTrue("observed versions " + versions, versions.size() > 1);
+    }
+
+    private void report(List<Worker> workers, long[] reloadNanos, long elapsedNanos, Allocation allocation) {
+        int documents = 0;
+        long chars = 0;
+        for (Worker worker : workers) {
+            documents += worker.count;
+            chars += worker.chars;
+        }
+        long[] latencies = new long[documents];
+        int offset = 0;
+        for (Worker worker : workers) {
+            System.arraycopy(worker.latencies, 0, latencies, offset, worker.count);
+            offset += worker.count;
+        }
+        Arrays.sort(latencies);
+        Arrays.sort(reloadNanos);
+
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("threads: %d, reloads: %d, max dictionary size: %d%n", THREADS, RELOADS, DICTIONARY_SIZE);
+        System.out.printf("throughput: %.0f docs/s, %.1f Mchars/s%n", documents / seconds, chars / seconds / 1e6);
+        System.out.printf("latency: p50 %.1f us, p99 %.1f us, p999 %.1f us, max %.1f us%n",
+                percentile(latencies, 0.5) / 1e3, percentile(latencies, 0.99) / 1e3,
+                percentile(latencies, 0.999) / 1e3, latencies[latencies.length - 1] / 1e3);
+        System.out.printf("reload: p50 %.1f ms, max %.1f ms%n",
+                percentile(reloadNanos, 0.5) / 1e6, reloadNanos[reloadNanos.length - 1] / 1e6);
+        if (allocation.supported) {
+            System.out.printf("analysis allocation: %.1f MB/s during reloads, %.1f MB/s between reloads%n",
+                    allocation.reloadWorkerBytes / (allocation.reloadNanos / 1e9) / (1 << 20),
+                    allocation.idleWorkerBytes / (allocation.idleNanos / 1e9) / (1 << 20));
+            System.out.printf("reload allocation: %.1f MB per reload%n", allocation.reloadBytes / (double) RELOADS / (1 << 20));
+        } else {
+            System.out.println("allocation: not supported by this JVM");
+        }
+    }
+
+    /**
+     * 按时间窗口统计线程的内存分配，重新加载本身的分配包括调用线程与下载线程
+     */
+    private class Allocation {
+
+        private final com.sun.management.ThreadMXBean threadMXBean;
+
+        private final boolean supported;
+
+        private long reloadWorkerBytes;
+
+        private long reloadNanos;
+
+        private long idleWorkerBytes;
+
+        private long idleNanos;
+
+        private long reloadBytes;
+
+        Allocation() {
+            ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            this.supported = bean instanceof com.sun.management.ThreadMXBean
+                    && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()
+                    && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemoryEnabled();
+            this.threadMXBean = supported ? (com.sun.management.ThreadMXBean) bean : null;
+        }
+
+        long[] of(long[] ids) {
+            return supported ? threadMXBean.getThreadAllocatedBytes(ids) : new long[ids.length];
+        }
+
+        long ofReload() {
+            if (!supported) {
+                return 0;
+            }
+            long[] ids = new long[fetchThreads.size() + 1];
+            ids[0] = Thread.currentThread().getId();
+            for (int i = 1; i < ids.length; i++) {
+                ids[i] = fetchThreads.get(i - 1).getId();
+            }
+            return sum(threadMXBean.getThreadAllocatedBytes(ids));
+        }
+
+        void addReload(long[] workerIds, long[] workersBefore, long reloadBefore, long nanos) {
+            reloadWorkerBytes += delta(of(workerIds), workersBefore);
+            reloadBytes += ofReload() - reloadBefore;
+            reloadNanos += nanos;
+        }
+
+        void addIdle(long[] workerIds, long[] workersBefore, long nanos) {
+            idleWorkerBytes += delta(of(workerIds), workersBefore);
+            idleNanos += nanos;
+        }
+
+        private long delta(long[] after, long[] before) {
+            long bytes = 0;
+            for (int i = 0; i < after.length; i++) {
+                // 线程已经结束时返回 -1
+                if (after[i] >= 0 && before[i] >= 0) {
+                    bytes += after[i] - before[i];
+                }
+            }
+            return bytes;
+        }
+
+        private long sum(long[] bytes) {
+            long total = 0;
+            for (long b : bytes) {
+                total += Math.max(0, b);
+            }
+            return total;
+        }
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    /**
+     * 在临时目录中生成插件配置，remote_ext_dict 指向内嵌 http 服务
+     */
+    private Environment environment() throws Exception {
+        Path home = temporaryFolder.newFolder("n-gram-stress").toPath();
+        Path configDir = home.resolve("config");
+        Path pluginConfigDir = Files.createDirectories(configDir.resolve(AnalysisNGramPlugin.PLUGIN_NAME));
+        String config = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<!DOCTYPE properties SYSTEM \"http://java.sun.com/dtd/properties.dtd\">\n"
+                + "<properties>\n"
+                + "\t<entry key=\"remote_ext_dict\">http://127.0.0.1:" + server.getAddress().getPort() + "/remote.dic</entry>\n"
+                + "</properties>\n";
+        Files.write(pluginConfigDir.resolve("analyzer.cfg.xml"), config.getBytes(StandardCharsets.UTF_8));
+        return new Environment(Settings.builder().put(Environment.PATH_HOME_SETTING.getKey(), home.toString()).build(), configDir);
+    }
+
+    private static String marker(int version) {
+        return String.format("<v%04d>", version);
+    }
+
+    private static boolean containsMarker(DictionarySnapshot snapshot, int version) {
+        char[] marker = marker(version).toCharArray();
+        return snapshot.contains(marker, 0, marker.length);
+    }
+
+    /**
+     * 生成指定版本的远程词典：版本标记词 + 随机汉字词，规模在不同版本之间轮换
+     */
+    private static List<String> dictionary(int version) {
+        int size = version % 3 == 0 ? DICTIONARY_SIZE / 50 : version % 3 == 1 ? DICTIONARY_SIZE / 5 : DICTIONARY_SIZE;
+        Random random = new Random(version);
+        List<String> words = new ArrayList<>(size + 1);
+        words.add(marker(version));
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            word.setLength(0);
+            int length = 3 + random.nextInt(3);
+            for (int j = 0; j < length; j++) {
+                word.append(randomHan(random));
+            }
+            words.add(word.toString());
+        }
+        return words;
+    }
+
+    private static char randomHan(Random random) {
+        // 常用汉字区间的前 2000 个字，让随机文本有一定概率命中词典词
+        return (char) (0x4E00 + random.nextInt(2000));
+    }
+
+    /**
+     * 每篇文档都包含所有版本的标记词，分散在随机汉字之间
+     */
+    private static String document(Random random) {
+        List<String> markers = new ArrayList<>();
+        for (int v = 0; v <= RELOADS; v++) {
+            markers.add(marker(v));
+        }
+        StringBuilder text = new StringBuilder(DOCUMENT_SIZE + markers.size() * 8);
+        int gap = DOCUMENT_SIZE / markers.size();
+        while (!markers.isEmpty()) {
+            for (int i = 0; i < gap; i++) {
+                text.append(randomHan(random));
+            }
+            text.append(markers.remove(random.nextInt(markers.size())));
+        }
+        return text.toString();
+    }
+
+    private static class RemoteVersion {
+
+        private final String eTag;
+
+        private final byte[] body;
+
+        RemoteVersion(int version, List<String> words) {
+            this.eTag = "\"v" + version + "\"";
+            this.body = String.join("\n", words).getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * 分词线程，分词器在线程内复用，与 es 中的使用方式一致
+     */
+    private static class Worker extends Thread {
+
+        private final NGramTokenizer tokenizer;
+
+        private final String[] documents;
+
+        private final CountDownLatch start;
+
+        private volatile boolean running = true;
+
+        private long[] latencies = new long[1 << 14];
+
+        private int count;
+
+        private long chars;
+
+        private final List<Integer> versions = new ArrayList<>();
+
+        private volatile String error;
+
+        Worker(Configuration configuration, Random random, CountDownLatch start) {
+            super("n-gram-stress-" + random.nextInt(1000));
+            this.tokenizer = new NGramTokenizer(configuration);
+            this.start = start;
+            this.documents = new String[DOCUMENTS_PER_THREAD];
+            for (int i = 0; i < documents.length; i++) {
+                documents[i] = document(random);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                start.await();
+                int lastVersion = -1;
+                while (running && error == null) {
+                    String document = documents[count % documents.length];
+                    long t0 = System.nanoTime();
+                    int version = analyze(document);
+                    long latency = System.nanoTime() - t0;
+
+                    if (count == latencies.length) {
+                        latencies = Arrays.copyOf(latencies, count << 1);
+                    }
+                    latencies[count++] = latency;
+                    chars += document.length();
+
+                    if (version < lastVersion) {
+                        error = getName() + " saw version " + version + " after " + lastVersion;
+                    }
+                    if (version != lastVersion) {
+                        versions.add(version);
+                        lastVersion = version;
+                    }
+                }
+            } catch (Throwable e) {
+                error = getName() + " failed: " + e;
+            }
+        }
+
+        /**
+         * @return 本篇文档使用的词典版本
+         */
+        private int analyze(String document) throws Exception {
+            CharTermAttribute termAtt = tokenizer.getAttribute(CharTermAttribute.class);
+            TypeAttribute typeAtt = tokenizer.getAttribute(TypeAttribute.class);
+            tokenizer.setReader(new StringReader(document));
+            tokenizer.reset();
+            int version = -1;
+            int markers = 0;
+            while (tokenizer.incrementToken()) {
+                if (TermTypeEnum.CN_WORD.getName().equals(typeAtt.type()) && termAtt.charAt(0) == '<') {
+                    version = Integer.parseInt(termAtt.subSequence(2, termAtt.length() - 1).toString());
+                    markers++;
+                }
+            }
+            tokenizer.end();
+            tokenizer.close();
+            if (markers != 1) {
+                throw new AssertionError("document matched " + markers + " dictionary versions, expected exactly 1");
+            }
+            return version;
+        }
+    }
+
+}
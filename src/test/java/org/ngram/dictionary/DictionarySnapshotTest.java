@@ -0,0 +1,35 @@
+package org.ngram.dictionary;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DictionarySnapshotTest {
+
+    @Test
+    public void testMultiWordEntriesAndTabWeights() {
+        DictionarySnapshot snapshot = DictionarySnapshot.build(Arrays.asList("iphone 15", "华为\t100", "mate 40\t20"), 1);
+
+        // 空格是词的一部分，不会被当作词频
+        assertTrue(contains(snapshot, "iphone 15"));
+        assertFalse(contains(snapshot, "iphone"));
+        assertEquals(DictionarySnapshot.NO_WEIGHT, weight(snapshot, "iphone 15"));
+
+        assertTrue(contains(snapshot, "华为"));
+        assertEquals(100, weight(snapshot, "华为"));
+        assertTrue(contains(snapshot, "mate 40"));
+        assertEquals(20, weight(snapshot, "mate 40"));
+    }
+
+    private static boolean contains(DictionarySnapshot snapshot, String word) {
+        return snapshot.contains(word.toCharArray(), 0, word.length());
+    }
+
+    private static int weight(DictionarySnapshot snapshot, String word) {
+        return snapshot.weight(word.toCharArray(), 0, word.length());
+    }
+}
@@ -0,0 +1,82 @@
+package org.ngram.dictionary;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class LocalDictionaryWatcherTest {
+
+    private static final long DEBOUNCE_MILLIS = 300;
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testDebounceAndSkipUnchangedContent() throws Exception {
+        Path dir = temporaryFolder.getRoot().toPath();
+        Path file = LocalDictionaryWatcher.normalize(dir.resolve("main.dic"));
+
+        // 模拟首次加载，之后、监听开始之前文件又被修改
+        Map<Path, Long> loaded = new ConcurrentHashMap<>();
+        write(file, "东方\n");
+        loaded.put(file, LocalDictionaryWatcher.checksum(file));
+        write(file, "东方\n明珠\n");
+
+        // 每次重新加载记录读取到的内容
+        BlockingQueue<String> reloads = new LinkedBlockingQueue<>();
+        Thread thread = new Thread(new LocalDictionaryWatcher(Collections.singletonList(file), DEBOUNCE_MILLIS,
+                path -> loaded.getOrDefault(path, -1L), () -> {
+            loaded.put(file, LocalDictionaryWatcher.checksum(file));
+            reloads.add(read(file));
+        }));
+        thread.start();
+        try {
+            // 监听注册后的首次检查发现加载之后的修改
+            assertEquals("东方\n明珠\n", reloads.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+            // 连续多次写入只触发一次重新加载
+            for (int i = 0; i < 5; i++) {
+                write(file, "东方\n明珠" + i + "\n");
+            }
+            assertEquals("东方\n明珠4\n", reloads.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+            // 内容没有变化的改写、其它文件的修改都不触发重新加载，下一次重新加载读到的就是真正修改后的内容
+            write(file, "东方\n明珠4\n");
+            write(dir.resolve("other.dic"), "其它\n");
+            write(file, "东方\n");
+            assertEquals("东方\n", reloads.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        } finally {
+            thread.interrupt();
+            thread.join();
+        }
+        assertEquals(0, reloads.size());
+    }
+
+    private static void write(Path file, String content) throws Exception {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(Path file) {
+        try {
+            return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}